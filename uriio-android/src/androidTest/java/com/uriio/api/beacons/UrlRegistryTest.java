@@ -0,0 +1,84 @@
+package com.uriio.api.beacons;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.uriio.beacons.Beacons;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Checks the registry queries against a real beacons storage database.
+ */
+@RunWith(AndroidJUnit4.class)
+public class UrlRegistryTest {
+    private final String mLongUrl = "https://example.com/registry-test/" + System.nanoTime();
+    private UriioBeacon mFirst;
+    private UriioBeacon mSecond;
+
+    @Before
+    public void setUp() {
+        Beacons.initialize(InstrumentationRegistry.getTargetContext());
+
+        mFirst = new UriioBeacon(1001, "token1", 300, mLongUrl + "/b", 0, null);
+        mSecond = new UriioBeacon(1002, "token2", 600, mLongUrl + "/a", 0, null);
+        mFirst.save(false);
+        mSecond.save(false);
+
+        // short URL and expiry are written by their own update, not on insert
+        mFirst.edit().setShortUrl("https://uri.io/short1", 1234567L).apply();
+    }
+
+    @After
+    public void tearDown() {
+        mFirst.delete();
+        mSecond.delete();
+    }
+
+    @Test
+    public void listsSavedRows() {
+        assertEquals(2, UrlRegistry.getCount(mLongUrl));
+
+        List<UrlRecord> records = UrlRegistry.getPage(0, 10, UrlRegistry.SORT_NONE, mLongUrl);
+        assertEquals(2, records.size());
+
+        UrlRecord record = records.get(0);
+        assertEquals(1001, record.getUrlId());
+        assertEquals("token1", record.getUrlToken());
+        assertEquals(mLongUrl + "/b", record.getLongUrl());
+        assertEquals(300, record.getTimeToLive());
+        assertEquals(1234567L, record.getExpireTime());
+        assertEquals("https://uri.io/short1", record.getShortUrl());
+    }
+
+    @Test
+    public void pagesInSortOrder() {
+        List<UrlRecord> first = UrlRegistry.getPage(0, 1, UrlRegistry.SORT_LONG_URL, mLongUrl);
+        List<UrlRecord> second = UrlRegistry.getPage(1, 1, UrlRegistry.SORT_LONG_URL, mLongUrl);
+
+        assertEquals(1002, first.get(0).getUrlId());
+        assertEquals(1001, second.get(0).getUrlId());
+    }
+
+    @Test
+    public void filterEscapesWildcards() {
+        assertEquals(0, UrlRegistry.getCount(mLongUrl + "%"));
+    }
+
+    @Test
+    public void loadsSavedBeacon() {
+        UrlRecord record = UrlRegistry.getPage(0, 1, UrlRegistry.SORT_NONE, mLongUrl).get(0);
+
+        UriioBeacon beacon = UrlRegistry.loadBeacon(record);
+        assertNotNull(beacon);
+        assertEquals(record.getUrlId(), beacon.getUrlId());
+    }
+}
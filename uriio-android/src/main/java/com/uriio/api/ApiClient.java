@@ -1,5 +1,6 @@
 package com.uriio.api;
 
+import com.uriio.api.model.ErrorHolder;
 import com.uriio.api.model.IssueUrls;
 import com.uriio.api.model.ShortUrls;
 import com.uriio.api.model.UrlResource;
@@ -8,6 +9,14 @@ import com.uriio.beacons.Callback;
 import org.whispersystems.curve25519.Curve25519;
 import org.whispersystems.curve25519.Curve25519KeyPair;
 
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
 import retrofit2.Call;
 import retrofit2.Retrofit;
 import retrofit2.converter.gson.GsonConverterFactory;
@@ -44,14 +53,26 @@ class ApiClient {
 
     private static final String ROOT_SERVICE_URL = "https://api.uriio.com/v1/";
 
+    private static final Annotation[] NO_ANNOTATIONS = new Annotation[0];
+
+    private static OkHttpClient _httpClient;
     private static Retrofit _instance;
     private final String mApiKey;
     private final UriioService mApiService;
 
-    static Retrofit getRetrofit() {
+    private static synchronized OkHttpClient getHttpClient() {
+        if (null == _httpClient) {
+            _httpClient = new OkHttpClient();
+        }
+        return _httpClient;
+    }
+
+    static synchronized Retrofit getRetrofit() {
         if (null == _instance) {
+            // share the HTTP client so a pre-warmed connection pool is reused by API calls
             _instance = new Retrofit.Builder()
                     .baseUrl(ROOT_SERVICE_URL)
+                    .client(getHttpClient())
                     .addConverterFactory(GsonConverterFactory.create())
                     .build();
         }
@@ -63,21 +84,58 @@ class ApiClient {
         mApiService = getRetrofit().create(ApiClient.UriioService.class);
     }
 
+    /**
+     * Performs the one-time setup work of the first API call ahead of time. Blocking, so it must
+     * not be called on the main thread.
+     * @param primeConnection    If true, also makes a HEAD request to the API root, so the TLS
+     *                           handshake is done and the connection is kept in the pool.
+     */
+    void prewarm(boolean primeConnection) {
+        Retrofit retrofit = getRetrofit();
+
+        // Gson adapters are built reflectively on first use
+        retrofit.requestBodyConverter(IssueUrls.class, NO_ANNOTATIONS, NO_ANNOTATIONS);
+        retrofit.requestBodyConverter(UrlResource.class, NO_ANNOTATIONS, NO_ANNOTATIONS);
+        retrofit.responseBodyConverter(ShortUrls.class, NO_ANNOTATIONS);
+        retrofit.responseBodyConverter(UrlResource.class, NO_ANNOTATIONS);
+        retrofit.responseBodyConverter(ErrorHolder.class, NO_ANNOTATIONS);
+
+        // service methods are parsed and cached when a call is created, not when it's executed
+        mApiService.issueBeaconUrls(0, new IssueUrls(mApiKey, null, 0, 1));
+        mApiService.getUrl(0, mApiKey, null);
+
+        try {
+            InetAddress.getAllByName(retrofit.baseUrl().host());
+        } catch (UnknownHostException ignored) {
+            // offline - the real request will report the error
+        }
+
+        if (primeConnection) {
+            Request request = new Request.Builder().url(retrofit.baseUrl()).head().build();
+            try {
+                Response response = getHttpClient().newCall(request).execute();
+                response.body().close();
+            } catch (IOException ignored) {
+                // priming is best-effort
+            }
+        }
+    }
+
     /**
      * Registers a new long URL resource.
      * @param url           The long URL.
      * @param urlPublicKey  The public key of the new URL. Each URL should have its own key-pair.
      *                      If null, a public key will be generated using Curve25519.generateKeyPair()
      * @param callback      Result callback.
+     * @return Handle for cancelling the request.
      */
-    void registerUrl(String url, byte[] urlPublicKey, Callback<UrlResource> callback) {
+    Cancelable registerUrl(String url, byte[] urlPublicKey, Callback<UrlResource> callback) {
         if (null == urlPublicKey) {
             Curve25519KeyPair keyPair = Curve25519.getInstance(Curve25519.BEST).generateKeyPair();
             urlPublicKey = keyPair.getPublicKey();
         }
 
-        mApiService.registerUrl(new UrlResource(mApiKey, url, urlPublicKey))
-                .enqueue(new SimpleResultHandler<>(callback));
+        return enqueue(mApiService.registerUrl(new UrlResource(mApiKey, url, urlPublicKey)), callback);
     }
 
     /**
@@ -87,23 +145,39 @@ class ApiClient {
      * @param ttl         Time To Live for the returned short URL (or 0 to never expire).
      * @param numToIssue  How many short URLs to request.
      * @param callback    Result callback.
+     * @return Handle for cancelling the request.
      */
-    void issueBeaconUrls(long urlId, String urlToken, int ttl, int numToIssue,
-                         Callback<ShortUrls> callback) {
-        mApiService.issueBeaconUrls(urlId, new IssueUrls(mApiKey, urlToken, ttl, numToIssue))
-                .enqueue(new SimpleResultHandler<>(callback));
+    Cancelable issueBeaconUrls(long urlId, String urlToken, int ttl, int numToIssue,
+                               Callback<ShortUrls> callback) {
+        return enqueue(mApiService.issueBeaconUrls(urlId, new IssueUrls(mApiKey, urlToken, ttl, numToIssue)),
+                callback);
     }
 
-    void updateUrl(long urlId, String urlToken, String longUrl, Callback<UrlResource> callback) {
-        mApiService.updateUrl(urlId, new UrlResource(mApiKey, urlToken, longUrl))
-                .enqueue(new SimpleResultHandler<>(callback));
+    Cancelable updateUrl(long urlId, String urlToken, String longUrl, Callback<UrlResource> callback) {
+        return enqueue(mApiService.updateUrl(urlId, new UrlResource(mApiKey, urlToken, longUrl)), callback);
     }
 
-    void deleteUrl(long urlId, String urlToken, Callback<UrlResource> callback) {
-        mApiService.deleteUrl(urlId, mApiKey, urlToken).enqueue(new SimpleResultHandler<>(callback));
+    Cancelable deleteUrl(long urlId, String urlToken, Callback<UrlResource> callback) {
+        return enqueue(mApiService.deleteUrl(urlId, mApiKey, urlToken), callback);
     }
 
-    void getUrl(long urlId, String urlToken, Callback<UrlResource> callback) {
-        mApiService.getUrl(urlId, mApiKey, urlToken).enqueue(new SimpleResultHandler<>(callback));
+    Cancelable getUrl(long urlId, String urlToken, Callback<UrlResource> callback) {
+        return enqueue(mApiService.getUrl(urlId, mApiKey, urlToken), callback);
+    }
+
+    private static <T> Cancelable enqueue(final Call<T> call, Callback<T> callback) {
+        call.enqueue(new SimpleResultHandler<>(callback));
+
+        return new Cancelable() {
+            @Override
+            public void cancel() {
+                call.cancel();
+            }
+
+            @Override
+            public boolean isCanceled() {
+                return call.isCanceled();
+            }
+        };
     }
 }
\ No newline at end of file
@@ -0,0 +1,13 @@
+package com.uriio.api;
+
+/**
+ * Handle for an API operation in progress.
+ */
+public interface Cancelable {
+    /**
+     * Cancels the operation. Its result callback will not be called, unless it already was.
+     */
+    void cancel();
+
+    boolean isCanceled();
+}
@@ -0,0 +1,15 @@
+package com.uriio.api;
+
+/**
+ * Source of wall time for short URL expiry decisions. Replaceable for tests and simulations.
+ */
+public interface Clock {
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    long currentTimeMillis();
+}
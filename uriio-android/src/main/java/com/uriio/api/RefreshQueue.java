@@ -0,0 +1,224 @@
+package com.uriio.api;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Build;
+import android.os.SystemClock;
+
+import com.uriio.api.beacons.RotationPolicy;
+import com.uriio.api.beacons.UriioBeacon;
+import com.uriio.beacons.BuildConfig;
+import com.uriio.beacons.Callback;
+import com.uriio.beacons.Util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Single scheduler for refreshing the short URLs of all active ephemeral beacons.
+ * Beacons are kept in a min-heap ordered by refresh deadline, and only one alarm is ever pending,
+ * for the earliest deadline. Every beacon whose deadline falls within the slack interval of a
+ * wakeup is refreshed during that same wakeup.
+ * Deadlines are in {@link UriioBeacon#getClock()} time; the alarm is set as a delay on the
+ * elapsed realtime clock, so it fires on time whatever the clock, and across wall clock changes.
+ */
+class RefreshQueue implements UriioBeacon.RefreshScheduler {
+    private static final String TAG = "RefreshQueue";
+    private static final String ACTION_REFRESH = "com.uriio.api.action.REFRESH";
+
+    /** Signature permission declared in the library manifest, prefixed by the application id. */
+    private static final String PERMISSION_REFRESH = ".permission.URIIO_REFRESH";
+
+    private static class Entry {
+        final UriioBeacon beacon;
+        final long deadline;
+
+        Entry(UriioBeacon beacon, long deadline) {
+            this.beacon = beacon;
+            this.deadline = deadline;
+        }
+    }
+
+    private final PriorityQueue<Entry> mQueue = new PriorityQueue<>(16, new Comparator<Entry>() {
+        @Override
+        public int compare(Entry lhs, Entry rhs) {
+            return lhs.deadline < rhs.deadline ? -1 : (lhs.deadline == rhs.deadline ? 0 : 1);
+        }
+    });
+    private final Map<UriioBeacon, Entry> mEntries = new HashMap<>();
+
+    /** Refreshes in flight, taken out of the queue until they complete. */
+    private final Map<UriioBeacon, Cancelable> mRefreshing = new HashMap<>();
+
+    private final Context mContext;
+    private final PendingIntent mAlarmIntent;
+    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            onWakeup();
+        }
+    };
+
+    private long mSlack;
+
+    /** Deadline the pending alarm was set for, or 0 if none is set. */
+    private long mWakeupTime = 0;
+
+    RefreshQueue(Context context, long slackMillis) {
+        mContext = context.getApplicationContext();
+        mSlack = slackMillis;
+
+        Intent intent = new Intent(ACTION_REFRESH).setPackage(mContext.getPackageName());
+        mAlarmIntent = PendingIntent.getBroadcast(mContext, 0, intent, 0);
+
+        // only senders signed like this app, i.e. the alarm, can trigger a wakeup
+        mContext.registerReceiver(mReceiver, new IntentFilter(ACTION_REFRESH),
+                mContext.getPackageName() + PERMISSION_REFRESH, null);
+    }
+
+    synchronized void setSlack(long slackMillis) {
+        mSlack = slackMillis;
+    }
+
+    /**
+     * Cancels the pending alarm and the refreshes in flight, and empties the queue.
+     * @return The beacons that were queued or being refreshed, which now have nobody to refresh them.
+     */
+    synchronized List<UriioBeacon> close() {
+        List<UriioBeacon> beacons = new ArrayList<>(mEntries.keySet());
+
+        for (Map.Entry<UriioBeacon, Cancelable> refreshing : mRefreshing.entrySet()) {
+            refreshing.getValue().cancel();
+            beacons.add(refreshing.getKey());
+        }
+        mRefreshing.clear();
+
+        mQueue.clear();
+        mEntries.clear();
+        getAlarmManager().cancel(mAlarmIntent);
+        mWakeupTime = 0;
+
+        mContext.unregisterReceiver(mReceiver);
+
+        return beacons;
+    }
+
+    @Override
+    public synchronized void schedule(UriioBeacon beacon) {
+        if (0 == beacon.getActualExpireTime()) {
+            // non-ephemeral URL, never needs a refresh
+            cancel(beacon);
+        } else {
+            enqueue(beacon, beacon.getRefreshDeadline());
+        }
+    }
+
+    @Override
+    public synchronized void cancel(UriioBeacon beacon) {
+        Entry entry = mEntries.remove(beacon);
+        if (null != entry) {
+            mQueue.remove(entry);
+            updateAlarm();
+        }
+    }
+
+    private void enqueue(UriioBeacon beacon, long deadline) {
+        Entry entry = mEntries.remove(beacon);
+        if (null != entry) {
+            mQueue.remove(entry);
+        }
+
+        entry = new Entry(beacon, deadline);
+        mEntries.put(beacon, entry);
+        mQueue.add(entry);
+
+        updateAlarm();
+    }
+
+    private synchronized void onWakeup() {
+        mWakeupTime = 0;
+
+        // serve every deadline that would otherwise need its own wakeup within the slack interval
+        long limit = UriioBeacon.getClock().currentTimeMillis() + mSlack;
+        while (!mQueue.isEmpty() && mQueue.peek().deadline <= limit) {
+            Entry entry = mQueue.poll();
+            mEntries.remove(entry.beacon);
+            refresh(entry.beacon);
+        }
+
+        updateAlarm();
+    }
+
+    private void refresh(final UriioBeacon beacon) {
+        if (BuildConfig.DEBUG) Util.log(TAG, "Refreshing beacon URL for beacon " + beacon.getUUID());
+
+        // on success the beacon restarts with the new URL and gets queued again with its new deadline
+        Cancelable request = beacon.refresh(new Callback<Boolean>() {
+            @Override
+            public void onResult(Boolean result, Throwable error) {
+                synchronized (RefreshQueue.this) {
+                    // never called once cancelled, by close() or by a newer issue for the beacon
+                    mRefreshing.remove(beacon);
+                }
+
+                if (result) return;
+
+                RotationPolicy policy = UriioBeacon.getRotationPolicy();
+                long now = UriioBeacon.getClock().currentTimeMillis();
+
+                if (policy.hasExpired(beacon.getActualExpireTime(), now)) {
+                    // URL expired, so restart the beacon: it goes off air until a new URL is
+                    // issued, and the service reports a start failure if that fails too
+                    beacon.restartAdvertising();
+                    return;
+                }
+
+                synchronized (RefreshQueue.this) {
+                    if (!mEntries.containsKey(beacon)) {
+                        // retry while the current URL is valid
+                        enqueue(beacon, policy.getRetryDeadline(beacon.getActualExpireTime(), now));
+                    }
+                }
+            }
+        });
+
+        if (null != request) {
+            mRefreshing.put(beacon, request);
+        }
+    }
+
+    private void updateAlarm() {
+        if (mQueue.isEmpty()) {
+            if (0 != mWakeupTime) {
+                getAlarmManager().cancel(mAlarmIntent);
+                mWakeupTime = 0;
+            }
+            return;
+        }
+
+        long deadline = mQueue.peek().deadline;
+        if (deadline == mWakeupTime) return;
+
+        // the same PendingIntent is reused, so setting it replaces any previous alarm
+        mWakeupTime = deadline;
+        long delay = Math.max(0, deadline - UriioBeacon.getClock().currentTimeMillis());
+        long triggerTime = SystemClock.elapsedRealtime() + delay;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            getAlarmManager().setExact(AlarmManager.ELAPSED_REALTIME_WAKEUP, triggerTime, mAlarmIntent);
+        } else {
+            getAlarmManager().set(AlarmManager.ELAPSED_REALTIME_WAKEUP, triggerTime, mAlarmIntent);
+        }
+    }
+
+    private AlarmManager getAlarmManager() {
+        return (AlarmManager) mContext.getSystemService(Context.ALARM_SERVICE);
+    }
+}
@@ -0,0 +1,351 @@
+package com.uriio.api;
+
+import com.uriio.beacons.Util;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of issued short URLs, for finding out which URL a beacon advertised at a given time.
+ * Records are written to memory-mapped segment files of fixed size. When a segment is full a new one
+ * is started, and the oldest segments are deleted to keep the journal within its disk budget.
+ * Each record carries a checksum, so records torn by a process kill or power loss are detected, and
+ * a segment is read only up to its first invalid record. Records not yet written back by the OS
+ * may be lost on power loss.
+ */
+public class RotationJournal {
+    private static final String TAG = "RotationJournal";
+
+    private static final String SEGMENT_SUFFIX = ".rj";
+    private static final int SEGMENT_MAGIC = 0x524a3033;   // "RJ03"
+
+    /** Segment header: magic, then the lowest and highest issue time of the segment's records. */
+    private static final int HEADER_SIZE = 4 + 8 + 8;
+    private static final int OFFSET_MIN_TIME = 4;
+    private static final int OFFSET_MAX_TIME = 12;
+
+    /**
+     * Record: size, CRC-32 of the rest of the record, beacon id, issue time, expire time, URL length,
+     * and the UTF-8 URL bytes.
+     */
+    private static final int RECORD_FIXED_SIZE = 4 + 4 + 8 + 8 + 8 + 2;
+    private static final int OFFSET_CRC = 4;
+    private static final int OFFSET_ID = 8;
+    private static final int OFFSET_ISSUE_TIME = 16;
+    private static final int OFFSET_EXPIRE_TIME = 24;
+    private static final int OFFSET_URL_LENGTH = 32;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * A short URL issue.
+     */
+    public static class Entry {
+        private final long mBeaconId;
+        private final String mShortUrl;
+        private final long mIssueTime;
+        private final long mExpireTime;
+
+        Entry(long beaconId, String shortUrl, long issueTime, long expireTime) {
+            mBeaconId = beaconId;
+            mShortUrl = shortUrl;
+            mIssueTime = issueTime;
+            mExpireTime = expireTime;
+        }
+
+        /**
+         * @return The registered URL id of the beacon.
+         */
+        public long getBeaconId() {
+            return mBeaconId;
+        }
+
+        public String getShortUrl() {
+            return mShortUrl;
+        }
+
+        public long getIssueTime() {
+            return mIssueTime;
+        }
+
+        /**
+         * @return Expire time of the short URL, or 0 if it never expires.
+         */
+        public long getExpireTime() {
+            return mExpireTime;
+        }
+    }
+
+    private final File mDir;
+    private final int mSegmentSize;
+    private final int mMaxSegments;
+
+    /** Index of the newest segment, or -1 if none. */
+    private long mSegmentIndex = -1;
+
+    /** The newest segment, mapped for appending, or null if a new one must be started first. */
+    private MappedByteBuffer mSegment = null;
+
+    /**
+     * Opens or creates a journal.
+     * @param dir            Directory holding the journal segment files, used only by this journal.
+     * @param segmentSize    Size of a segment file, in bytes.
+     * @param maxBytes       Disk budget. Oldest segments are deleted to stay within it. At least two
+     *                       segments are kept.
+     * @throws IOException   If the journal directory or the last segment can't be opened.
+     */
+    public RotationJournal(File dir, int segmentSize, long maxBytes) throws IOException {
+        if (segmentSize < HEADER_SIZE + RECORD_FIXED_SIZE + 256) {
+            throw new IllegalArgumentException("Segment size too small");
+        }
+
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create journal directory " + dir);
+        }
+
+        mDir = dir;
+        mSegmentSize = segmentSize;
+        mMaxSegments = (int) Math.max(2, maxBytes / segmentSize);
+
+        long[] segments = listSegments();
+        if (segments.length > 0) {
+            mSegmentIndex = segments[segments.length - 1];
+
+            // resume appending after the last record of the newest segment, unless it was created
+            // with a different segment size; then the next record starts a new segment
+            if (getSegmentFile(mSegmentIndex).length() == mSegmentSize) {
+                mSegment = mapSegment(mSegmentIndex, FileChannel.MapMode.READ_WRITE);
+                int end = findEnd(mSegment);
+
+                // clear what a torn record left behind, so no stale bytes follow the next record
+                byte[] zeros = new byte[4096];
+                mSegment.position(end);
+                while (mSegment.hasRemaining()) {
+                    mSegment.put(zeros, 0, Math.min(zeros.length, mSegment.remaining()));
+                }
+                mSegment.position(end);
+            }
+        }
+    }
+
+    /**
+     * Appends a record. I/O errors are logged and the record is dropped.
+     * @param beaconId      The registered URL id of the beacon.
+     * @param shortUrl      The issued short URL.
+     * @param issueTime     Issue time, normally the current time.
+     * @param expireTime    Expire time of the short URL, or 0 if it never expires.
+     */
+    public synchronized void append(long beaconId, String shortUrl, long issueTime, long expireTime) {
+        byte[] url = shortUrl.getBytes(UTF8);
+        int size = RECORD_FIXED_SIZE + url.length;
+        if (HEADER_SIZE + size > mSegmentSize || url.length > 0xffff) {
+            log("Short URL too long for journal: " + shortUrl);
+            return;
+        }
+
+        try {
+            if (null == mSegment || mSegment.remaining() < size) {
+                startSegment();
+            }
+        } catch (IOException e) {
+            log("Cannot start journal segment: " + e.getMessage());
+            return;
+        }
+
+        int position = mSegment.position();
+        mSegment.position(position + OFFSET_ID);
+        mSegment.putLong(beaconId)
+                .putLong(issueTime)
+                .putLong(expireTime)
+                .putShort((short) url.length)
+                .put(url);
+        mSegment.putInt(position + OFFSET_CRC, checksum(mSegment, position, size));
+        mSegment.putInt(position, size);
+
+        if (issueTime < mSegment.getLong(OFFSET_MIN_TIME)) mSegment.putLong(OFFSET_MIN_TIME, issueTime);
+        if (issueTime > mSegment.getLong(OFFSET_MAX_TIME)) mSegment.putLong(OFFSET_MAX_TIME, issueTime);
+    }
+
+    /**
+     * Finds the short URLs issued within a time range, in the order they were recorded.
+     * @param fromTime    Start of the range, inclusive.
+     * @param toTime      End of the range, exclusive.
+     * @param beaconId    If not 0, only records for this beacon are returned.
+     * @return The matching records.
+     * @throws IOException If a segment can't be read.
+     */
+    public synchronized List<Entry> query(long fromTime, long toTime, long beaconId) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+
+        for (long index : listSegments()) {
+            boolean current = index == mSegmentIndex && null != mSegment;
+            MappedByteBuffer segment = current ? mSegment : mapSegment(index, FileChannel.MapMode.READ_ONLY);
+
+            // skip whole segments by the range of issue times they hold; the wall clock may step
+            // back, so records aren't assumed to be in time order
+            if (segment.getLong(OFFSET_MAX_TIME) < fromTime || segment.getLong(OFFSET_MIN_TIME) >= toTime) {
+                continue;
+            }
+
+            int end = current ? mSegment.position() : segment.capacity();
+            int position = HEADER_SIZE;
+            while (position < end) {
+                int size = getValidSize(segment, position, end);
+                if (0 == size) break;
+
+                long issueTime = segment.getLong(position + OFFSET_ISSUE_TIME);
+                long id = segment.getLong(position + OFFSET_ID);
+
+                if (issueTime >= fromTime && issueTime < toTime && (0 == beaconId || id == beaconId)) {
+                    byte[] url = new byte[segment.getShort(position + OFFSET_URL_LENGTH) & 0xffff];
+                    ByteBuffer view = segment.duplicate();
+                    view.position(position + RECORD_FIXED_SIZE);
+                    view.get(url);
+
+                    entries.add(new Entry(id, new String(url, UTF8), issueTime,
+                            segment.getLong(position + OFFSET_EXPIRE_TIME)));
+                }
+
+                position += size;
+            }
+        }
+
+        return entries;
+    }
+
+    private void startSegment() throws IOException {
+        long index = mSegmentIndex + 1;
+        File file = getSegmentFile(index);
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Cannot replace journal segment " + file);
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            // the mapping stays valid after the channel is closed
+            mSegment = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mSegmentSize);
+        } finally {
+            raf.close();
+        }
+        mSegmentIndex = index;
+
+        mSegment.putInt(SEGMENT_MAGIC)
+                .putLong(Long.MAX_VALUE)    // min issue time
+                .putLong(Long.MIN_VALUE);   // max issue time
+
+        // enforce the disk budget
+        long[] segments = listSegments();
+        for (int i = 0; i < segments.length - mMaxSegments; i++) {
+            if (!getSegmentFile(segments[i]).delete()) {
+                log("Cannot delete journal segment " + segments[i]);
+            }
+        }
+    }
+
+    /**
+     * Maps an existing segment file at its actual size.
+     */
+    private MappedByteBuffer mapSegment(long index, FileChannel.MapMode mode) throws IOException {
+        File file = getSegmentFile(index);
+
+        RandomAccessFile raf = new RandomAccessFile(file, FileChannel.MapMode.READ_ONLY == mode ? "r" : "rw");
+        try {
+            MappedByteBuffer buffer = raf.getChannel().map(mode, 0, raf.length());
+            if (buffer.capacity() < HEADER_SIZE || SEGMENT_MAGIC != buffer.getInt(0)) {
+                throw new IOException("Not a journal segment: " + file);
+            }
+            return buffer;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @return Offset past the last valid record. Unwritten space of a mapped file reads as zeros.
+     */
+    private static int findEnd(MappedByteBuffer segment) {
+        int position = HEADER_SIZE;
+        int size;
+        while (0 != (size = getValidSize(segment, position, segment.capacity()))) {
+            position += size;
+        }
+        return position;
+    }
+
+    /**
+     * @return Size of the record at the given offset, or 0 if there's no complete and intact record there.
+     */
+    private static int getValidSize(ByteBuffer segment, int position, int end) {
+        if (position + RECORD_FIXED_SIZE > end) return 0;
+
+        int size = segment.getInt(position);
+        if (size < RECORD_FIXED_SIZE || size > end - position
+                || size != RECORD_FIXED_SIZE + (segment.getShort(position + OFFSET_URL_LENGTH) & 0xffff)) {
+            return 0;
+        }
+
+        return checksum(segment, position, size) == segment.getInt(position + OFFSET_CRC) ? size : 0;
+    }
+
+    /**
+     * @return CRC-32 of a record, from its beacon id to its end.
+     */
+    private static int checksum(ByteBuffer segment, int position, int size) {
+        byte[] bytes = new byte[size - OFFSET_ID];
+        ByteBuffer view = segment.duplicate();
+        view.position(position + OFFSET_ID);
+        view.get(bytes);
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Logs a dropped record or a failed cleanup. Replaceable in tests, which run without Android.
+     */
+    void log(String message) {
+        Util.log(TAG, message);
+    }
+
+    private File getSegmentFile(long index) {
+        return new File(mDir, String.format(Locale.US, "%012d%s", index, SEGMENT_SUFFIX));
+    }
+
+    private long[] listSegments() {
+        String[] names = mDir.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+
+        if (null == names) return new long[0];
+
+        long[] segments = new long[names.length];
+        int count = 0;
+        for (String name : names) {
+            try {
+                segments[count] = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                count++;
+            } catch (NumberFormatException ignored) {
+                // not a segment of this journal
+            }
+        }
+        segments = Arrays.copyOf(segments, count);
+        Arrays.sort(segments);
+
+        return segments;
+    }
+}
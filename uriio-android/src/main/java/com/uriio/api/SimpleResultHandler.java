@@ -23,6 +23,9 @@ public class SimpleResultHandler<T> implements retrofit2.Callback<T> {
 
     @Override
     public void onResponse(Call<T> call, Response<T> response) {
+        // a cancelled call may still deliver a response that was already received
+        if (call.isCanceled()) return;
+
         if (response.isSuccessful()) {
             callback.onResult(response.body(), null);
         } else {
@@ -32,6 +35,8 @@ public class SimpleResultHandler<T> implements retrofit2.Callback<T> {
 
     @Override
     public void onFailure(Call<T> call, Throwable t) {
+        if (call.isCanceled()) return;
+
         callback.onResult(null, t);
     }
 
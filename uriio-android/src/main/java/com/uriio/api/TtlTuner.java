@@ -0,0 +1,231 @@
+package com.uriio.api;
+
+import com.uriio.api.beacons.UriioBeacon;
+import com.uriio.api.model.UrlResource;
+import com.uriio.beacons.BuildConfig;
+import com.uriio.beacons.Callback;
+import com.uriio.beacons.Util;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Adjusts the TTL of ephemeral beacons to the demand they see, within fixed bounds.
+ * The hit count of a beacon's URL is sampled at most once per sampling interval, right after a
+ * short URL rotation. When the hit rate stays below the low threshold for several consecutive
+ * samples the TTL is doubled, so the beacon rotates less often; when it stays above the high
+ * threshold the TTL is halved. Rates between the thresholds leave the TTL unchanged.
+ * The new TTL is used starting with the next regular rotation.
+ */
+public class TtlTuner {
+    private static final String TAG = "TtlTuner";
+
+    /**
+     * Receives tuning decisions.
+     */
+    public interface Listener {
+        /**
+         * Called after a beacon's TTL was changed.
+         * @param beacon     The beacon.
+         * @param oldTtl     Previous TTL, in seconds.
+         * @param newTtl     New TTL, in seconds.
+         * @param hitRate    The hit rate that triggered the change, in hits per minute.
+         */
+        void onTtlChanged(UriioBeacon beacon, int oldTtl, int newTtl, double hitRate);
+    }
+
+    /**
+     * Hit count state of a beacon, from its previous samples.
+     */
+    static class Sample {
+        long hits;
+        long time;
+        int lowCount = 0;
+        int highCount = 0;
+
+        /** Hit rate measured by the latest sample, in hits per minute. */
+        double hitRate = 0;
+
+        Sample(long hits, long time) {
+            this.hits = hits;
+            this.time = time;
+        }
+    }
+
+    private final int mMinTtl;
+    private final int mMaxTtl;
+    private final double mLowHitRate;
+    private final double mHighHitRate;
+
+    private long mSampleInterval = 15 * 60 * 1000;
+    private int mSamplesToChange = 2;
+    private Listener mListener = null;
+
+    private final Map<Long, Sample> mSamples = new HashMap<>();
+
+    /** Hit count requests in flight, by URL id. */
+    private final Map<Long, Cancelable> mPending = new HashMap<>();
+
+    /**
+     * @param minTtl         Shortest allowed TTL, in seconds. Used under the highest demand.
+     * @param maxTtl         Longest allowed TTL, in seconds. Used when the beacon sees no demand.
+     * @param lowHitRate     Hits per minute below which the TTL is lengthened.
+     * @param highHitRate    Hits per minute above which the TTL is shortened. Must be higher than
+     *                       lowHitRate; the gap between them avoids flapping.
+     */
+    public TtlTuner(int minTtl, int maxTtl, double lowHitRate, double highHitRate) {
+        if (minTtl <= 0 || maxTtl < minTtl) {
+            throw new IllegalArgumentException("Invalid TTL bounds");
+        }
+        if (highHitRate <= lowHitRate) {
+            throw new IllegalArgumentException("High hit rate must be above low hit rate");
+        }
+
+        mMinTtl = minTtl;
+        mMaxTtl = maxTtl;
+        mLowHitRate = lowHitRate;
+        mHighHitRate = highHitRate;
+    }
+
+    /**
+     * @param sampleIntervalMillis    Minimum time between two hit count samples of a beacon.
+     *                                Each sample is an extra API call.
+     */
+    public TtlTuner setSampleInterval(long sampleIntervalMillis) {
+        mSampleInterval = sampleIntervalMillis;
+        return this;
+    }
+
+    /**
+     * @param samplesToChange    Consecutive samples beyond a threshold needed before the TTL changes.
+     */
+    public TtlTuner setSamplesToChange(int samplesToChange) {
+        mSamplesToChange = Math.max(1, samplesToChange);
+        return this;
+    }
+
+    public TtlTuner setListener(Listener listener) {
+        mListener = listener;
+        return this;
+    }
+
+    /**
+     * Called after a new short URL was issued for the beacon. Samples its hit count if due.
+     */
+    void onRotated(UriioBeacon beacon) {
+        if (0 == beacon.getTimeToLive()) return;   // not ephemeral
+
+        final long urlId = beacon.getUrlId();
+        if (mPending.containsKey(urlId)) return;
+
+        Sample sample = mSamples.get(urlId);
+        if (null != sample && UriioBeacon.getClock().currentTimeMillis() - sample.time < mSampleInterval) return;
+
+        final WeakReference<UriioBeacon> beaconRef = new WeakReference<>(beacon);
+        Cancelable request = Uriio.getUrl(beacon, new Callback<UrlResource>() {
+            @Override
+            public void onResult(UrlResource result, Throwable error) {
+                mPending.remove(urlId);
+
+                UriioBeacon beacon = beaconRef.get();
+                if (null != result && null != beacon) {
+                    onSample(beacon, result.getHits());
+                }
+            }
+        });
+
+        // the result is delivered asynchronously, so the handle is stored before the callback runs
+        mPending.put(urlId, request);
+    }
+
+    /**
+     * Stops tracking a beacon and cancels its hit count request, if any. Called when the beacon
+     * is stopped or deleted.
+     */
+    public void forget(UriioBeacon beacon) {
+        mSamples.remove(beacon.getUrlId());
+
+        Cancelable request = mPending.remove(beacon.getUrlId());
+        if (null != request) {
+            request.cancel();
+        }
+    }
+
+    private void onSample(UriioBeacon beacon, long hits) {
+        long now = UriioBeacon.getClock().currentTimeMillis();
+        Sample sample = mSamples.get(beacon.getUrlId());
+
+        if (null == sample) {
+            // first sample only sets the baseline
+            mSamples.put(beacon.getUrlId(), new Sample(hits, now));
+            return;
+        }
+
+        int ttl = beacon.getTimeToLive();
+        int newTtl = decide(sample, hits, now, ttl);
+
+        if (newTtl != ttl) {
+            if (BuildConfig.DEBUG) Util.log(TAG, "TTL " + ttl + " -> " + newTtl + " at " + sample.hitRate + " hits/min");
+
+            // keep the current short URL, the new TTL applies from the next rotation
+            beacon.edit().setTTL(newTtl, false).apply();
+
+            if (null != mListener) {
+                mListener.onTtlChanged(beacon, ttl, newTtl, sample.hitRate);
+            }
+        }
+    }
+
+    /**
+     * Takes a hit count sample into account and decides the TTL. Changes nothing but the sample.
+     * @param sample    State from the previous samples, updated with this one.
+     * @param hits      Current hit count of the URL.
+     * @param now       Time of this sample.
+     * @param ttl       Current TTL, in seconds.
+     * @return The TTL to use, in seconds; ttl itself if it stays unchanged.
+     */
+    int decide(Sample sample, long hits, long now, int ttl) {
+        long elapsed = now - sample.time;
+        if (elapsed <= 0) return ttl;
+
+        if (hits < sample.hits) {
+            // the server count was reset, so this sample only sets a new baseline
+            sample.hits = hits;
+            sample.time = now;
+            return ttl;
+        }
+
+        double hitRate = (hits - sample.hits) * 60000.0 / elapsed;
+        sample.hits = hits;
+        sample.time = now;
+        sample.hitRate = hitRate;
+
+        int newTtl = ttl;
+
+        if (hitRate < mLowHitRate) {
+            sample.highCount = 0;
+            if (++sample.lowCount >= mSamplesToChange) {
+                newTtl = (int) Math.min(mMaxTtl, ttl * 2L);
+            }
+        } else if (hitRate > mHighHitRate) {
+            sample.lowCount = 0;
+            if (++sample.highCount >= mSamplesToChange) {
+                newTtl = Math.max(mMinTtl, ttl / 2);
+            }
+        } else {
+            sample.lowCount = 0;
+            sample.highCount = 0;
+        }
+
+        // also pulls a TTL set outside the bounds back within them
+        newTtl = Math.max(mMinTtl, Math.min(mMaxTtl, newTtl));
+
+        if (newTtl != ttl) {
+            sample.lowCount = 0;
+            sample.highCount = 0;
+        }
+
+        return newTtl;
+    }
+}
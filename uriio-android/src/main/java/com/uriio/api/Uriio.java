@@ -4,6 +4,8 @@ import android.bluetooth.le.AdvertiseSettings;
 import android.content.Context;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
+import android.os.Process;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 
 import com.uriio.api.model.ShortUrl;
@@ -11,38 +13,162 @@ import com.uriio.api.model.ShortUrls;
 import com.uriio.api.model.UrlResource;
 import com.uriio.beacons.Beacons;
 import com.uriio.beacons.Callback;
+import com.uriio.beacons.Util;
 import com.uriio.api.beacons.UriioBeacon;
 
+import java.lang.ref.WeakReference;
 import java.util.Date;
+import java.util.List;
 
 /**
  * UriIO API wrapper, used to register, update, and issue ephemeral URLs.
  */
 public class Uriio {
+    private static final String TAG = "Uriio";
+
+    /** No pre-warming, everything is set up lazily by the first API call. */
+    public static final int PREWARM_NONE       = 0;
+
+    /** Pre-warms the API client, JSON adapters, and DNS lookup. */
+    public static final int PREWARM_CLIENT     = 1;
+
+    /** Same as {@link #PREWARM_CLIENT}, and also opens a TLS connection to the API server. */
+    public static final int PREWARM_CONNECTION = 2;
+
+    private static final UriioBeacon.ShortURLIssuer ISSUER = new UriioBeacon.ShortURLIssuer() {
+        @Override
+        public Cancelable issueBeaconUrl(UriioBeacon beacon, Callback<Boolean> callback) {
+            return issueShortUrl(beacon, callback);
+        }
+    };
+
+    private static final UriioBeacon.StopListener STOP_LISTENER = new UriioBeacon.StopListener() {
+        @Override
+        public void onBeaconStopped(UriioBeacon beacon) {
+            TtlTuner tuner = _ttlTuner;
+            if (null != tuner) {
+                tuner.forget(beacon);
+            }
+        }
+    };
+
     private static ApiClient _apiClient = null;
     private static boolean _initialized = false;
+    private static long _initializeTime = 0;
+    private static RefreshQueue _refreshQueue = null;
+    private static RotationJournal _rotationJournal = null;
+    private static TtlTuner _ttlTuner = null;
 
     /**
      * Initializes the library.
      * @param context    Calling context
      */
     public static void initialize(Context context) {
+        initialize(context, PREWARM_NONE);
+    }
+
+    /**
+     * Initializes the library, and optionally prepares the API client on a background thread, so
+     * that the first short URL issue doesn't wait for it.
+     * @param context        Calling context
+     * @param prewarmMode    One of {@link #PREWARM_NONE}, {@link #PREWARM_CLIENT}, or {@link #PREWARM_CONNECTION}
+     */
+    public static void initialize(Context context, final int prewarmMode) {
         Beacons.initialize(context);
 
         if (!_initialized) {
             _initialized = true;
+            _initializeTime = SystemClock.elapsedRealtime();
+
+            // beacons restored by the service during Beacons.initialize() don't count
+            UriioBeacon.resetFirstAdvertiseRequestTime();
+
+            if (PREWARM_NONE != prewarmMode) {
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        try {
+                            getAPiClient().prewarm(PREWARM_CONNECTION == prewarmMode);
+                        } catch (RuntimeException e) {
+                            // best-effort; e.g. a missing API key is reported by the first real API call
+                            Util.log(TAG, "Pre-warm failed: " + e.getMessage());
+                        }
+                    }
+                }, "UriioPrewarm").start();
+            }
 
             // inject issuer
-            UriioBeacon.setIssuer(new UriioBeacon.ShortURLIssuer() {
-                @Override
-                public void issueBeaconUrl(UriioBeacon beacon, Callback<Boolean> callback) {
-                    issueShortUrl(beacon, callback);
-                }
-            });
+            UriioBeacon.setIssuer(ISSUER);
+            UriioBeacon.setStopListener(STOP_LISTENER);
+        }
+    }
+
+    /**
+     * Refreshes the short URLs of all started beacons from a single queue ordered by deadline,
+     * with one pending wakeup. Should be called right after {@link #initialize(Context)}, before
+     * any beacon is started. Calling it again only updates the slack.
+     * @param slackMillis    Beacons due within this many milliseconds of a wakeup are refreshed
+     *                       during that same wakeup, instead of scheduling their own.
+     */
+    public static void enableRefreshQueue(long slackMillis) {
+        if (null == _refreshQueue) {
+            _refreshQueue = new RefreshQueue(Beacons.getContext(), slackMillis);
+            UriioBeacon.setRefreshScheduler(_refreshQueue);
+        } else {
+            _refreshQueue.setSlack(slackMillis);
         }
     }
 
-    private static ApiClient getAPiClient() {
+    /**
+     * Reverts to each beacon scheduling its own refresh. Beacons that were queued are restarted,
+     * so the beacon service schedules their refresh.
+     */
+    public static void disableRefreshQueue() {
+        if (null != _refreshQueue) {
+            UriioBeacon.setRefreshScheduler(null);
+            List<UriioBeacon> beacons = _refreshQueue.close();
+            _refreshQueue = null;
+
+            for (UriioBeacon beacon : beacons) {
+                beacon.restartAdvertising();
+            }
+        }
+    }
+
+    /**
+     * Records every issued short URL in an append-only journal, to be able to find out later which
+     * short URL a beacon was broadcasting at a given time.
+     * @param journal    The journal, or null to stop recording.
+     */
+    public static void setRotationJournal(RotationJournal journal) {
+        _rotationJournal = journal;
+    }
+
+    public static RotationJournal getRotationJournal() {
+        return _rotationJournal;
+    }
+
+    /**
+     * Enables automatic TTL adjustment of started beacons based on their URL hit rate.
+     * Beacons are forgotten by the tuner when they are stopped or deleted.
+     * @param tuner    The tuner, or null to keep TTLs as they are set.
+     */
+    public static void setTtlTuner(TtlTuner tuner) {
+        _ttlTuner = tuner;
+    }
+
+    /**
+     * @return Milliseconds elapsed from library initialization until the first UriIO beacon was
+     * handed to the beacon service for advertising, or -1 if none was since initialization.
+     * This doesn't include the time the advertiser takes to start.
+     */
+    public static long getTimeToFirstAdvertiseRequest() {
+        long requestTime = UriioBeacon.getFirstAdvertiseRequestTime();
+        return 0 == requestTime || 0 == _initializeTime ? -1 : requestTime - _initializeTime;
+    }
+
+    private static synchronized ApiClient getAPiClient() {
         if (null == _apiClient) {
             _apiClient = new ApiClient(extractApiKey(Beacons.getContext()));
         }
@@ -68,9 +194,10 @@ public class Uriio {
      * Registers an URL resource.
      * @param url         The URL to register
      * @param callback    Callback for receiving the registration result.
+     * @return Handle for cancelling the request.
      */
-    public static void registerUrl(String url, Callback<UrlResource> callback) {
-        getAPiClient().registerUrl(url, null, callback);
+    public static Cancelable registerUrl(String url, Callback<UrlResource> callback) {
+        return getAPiClient().registerUrl(url, null, callback);
     }
 
     /**
@@ -80,11 +207,12 @@ public class Uriio {
      * @param startBeacon         Starts the beacon.
      * @param saveBeacon          Saves the beacon.
      * @param callback            Callback for receiving the beacon created based on the registration result.
+     * @return Handle for cancelling the request.
      */
-    public static void registerUrl(String url, final int beaconTimeToLive,
-                                   final boolean startBeacon, final boolean saveBeacon,
-                                   final Callback<UriioBeacon> callback) {
-        registerUrl(url, new Callback<UrlResource>() {
+    public static Cancelable registerUrl(String url, final int beaconTimeToLive,
+                                         final boolean startBeacon, final boolean saveBeacon,
+                                         final Callback<UriioBeacon> callback) {
+        return registerUrl(url, new Callback<UrlResource>() {
             @Override
             public void onResult(UrlResource result, Throwable error) {
                 UriioBeacon beacon = null;
@@ -111,9 +239,10 @@ public class Uriio {
      * @param url                 The URL to register
      * @param beaconTimeToLive    Initial TTL for the issued beacon URLs.
      * @param callback            Callback for receiving the beacon created based on the registration result.
+     * @return Handle for cancelling the request.
      */
-    public static void registerUrl(String url, int beaconTimeToLive, Callback<UriioBeacon> callback) {
-        registerUrl(url, beaconTimeToLive, true, true, callback);
+    public static Cancelable registerUrl(String url, int beaconTimeToLive, Callback<UriioBeacon> callback) {
+        return registerUrl(url, beaconTimeToLive, true, true, callback);
     }
 
     /**
@@ -121,9 +250,10 @@ public class Uriio {
      * @param beacon      The beacon containing URL registration info.
      * @param url         New target URL to be redirected to.
      * @param callback    Callback for being notified when the operation finishes and the new info is saved.
+     * @return Handle for cancelling the request. The beacon is held until the request completes or is cancelled.
      */
-    public static void updateUrl(final UriioBeacon beacon, String url, final Callback<UriioBeacon> callback) {
-        getAPiClient().updateUrl(beacon.getUrlId(), beacon.getUrlToken(), url, new Callback<UrlResource>() {
+    public static Cancelable updateUrl(final UriioBeacon beacon, String url, final Callback<UriioBeacon> callback) {
+        return getAPiClient().updateUrl(beacon.getUrlId(), beacon.getUrlToken(), url, new Callback<UrlResource>() {
             @Override
             public void onResult(UrlResource result, Throwable error) {
                 if (null != result) {
@@ -142,13 +272,14 @@ public class Uriio {
      * @param urlId       Registered URL id.
      * @param urlToken    Registered URL token.
      * @param callback    Result callback.
+     * @return Handle for cancelling the request.
      */
-    public static void getUrl(long urlId, String urlToken, Callback<UrlResource> callback) {
-        getAPiClient().getUrl(urlId, urlToken, callback);
+    public static Cancelable getUrl(long urlId, String urlToken, Callback<UrlResource> callback) {
+        return getAPiClient().getUrl(urlId, urlToken, callback);
     }
 
-    public static void getUrl(UriioBeacon beacon, Callback<UrlResource> callback) {
-        getUrl(beacon.getUrlId(), beacon.getUrlToken(), callback);
+    public static Cancelable getUrl(UriioBeacon beacon, Callback<UrlResource> callback) {
+        return getUrl(beacon.getUrlId(), beacon.getUrlToken(), callback);
     }
 
     /**
@@ -156,18 +287,20 @@ public class Uriio {
      * @param urlId       Registered URL id.
      * @param urlToken    Registered URL token.
      * @param callback    Result callback. On success, the resource is non-null and contains the deleted date.
+     * @return Handle for cancelling the request.
      */
-    public static void deleteUrl(long urlId, String urlToken, Callback<UrlResource> callback) {
-        getAPiClient().deleteUrl(urlId, urlToken, callback);
+    public static Cancelable deleteUrl(long urlId, String urlToken, Callback<UrlResource> callback) {
+        return getAPiClient().deleteUrl(urlId, urlToken, callback);
     }
 
     /**
      * Deletes a URL resource for the specified beacon. On success, it also stops and deletes the beacon.
      * @param beacon      The beacon to unregister and eventually delete.
      * @param callback    Result callback. On success, the resource is non-null and contains the deleted date.
+     * @return Handle for cancelling the request. The beacon is held until the request completes or is cancelled.
      */
-    public static void deleteUrl(final UriioBeacon beacon, final Callback<UrlResource> callback) {
-        deleteUrl(beacon.getUrlId(), beacon.getUrlToken(), new Callback<UrlResource>() {
+    public static Cancelable deleteUrl(final UriioBeacon beacon, final Callback<UrlResource> callback) {
+        return deleteUrl(beacon.getUrlId(), beacon.getUrlToken(), new Callback<UrlResource>() {
             @Override
             public void onResult(UrlResource result, Throwable error) {
                 if (null != result) {
@@ -181,11 +314,17 @@ public class Uriio {
         });
     }
 
-    private static void issueShortUrl(final UriioBeacon beacon, final Callback<Boolean> callback) {
-        getAPiClient().issueBeaconUrls(beacon.getUrlId(), beacon.getUrlToken(), beacon.getTimeToLive(), 1,
+    private static Cancelable issueShortUrl(UriioBeacon beacon, final Callback<Boolean> callback) {
+        // don't keep a stopped or deleted beacon alive until the response arrives
+        final WeakReference<UriioBeacon> beaconRef = new WeakReference<>(beacon);
+
+        return getAPiClient().issueBeaconUrls(beacon.getUrlId(), beacon.getUrlToken(), beacon.getTimeToLive(), 1,
                 new Callback<ShortUrls>() {
                     @Override
                     public void onResult(ShortUrls result, Throwable error) {
+                        UriioBeacon beacon = beaconRef.get();
+                        if (null == beacon) return;
+
                         if (null != result) {
                             ShortUrl shortUrl = result.getItems()[0];
                             Date expireDate = shortUrl.getExpire();
@@ -194,6 +333,17 @@ public class Uriio {
                             beacon.edit()
                                     .setShortUrl(shortUrl.getUrl(), expireTime)
                                     .apply();
+
+                            RotationJournal journal = _rotationJournal;
+                            if (null != journal) {
+                                journal.append(beacon.getUrlId(), shortUrl.getUrl(),
+                                        UriioBeacon.getClock().currentTimeMillis(), expireTime);
+                            }
+
+                            TtlTuner tuner = _ttlTuner;
+                            if (null != tuner) {
+                                tuner.onRotated(beacon);
+                            }
                         } else {
                             beacon.setErrorDetails("Update failed");
                         }
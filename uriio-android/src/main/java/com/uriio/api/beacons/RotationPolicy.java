@@ -0,0 +1,85 @@
+package com.uriio.api.beacons;
+
+/**
+ * Decides when an ephemeral beacon needs a new short URL. Shared by {@link UriioBeacon} and the
+ * rotation simulator in the unit tests, so both take the same decisions.
+ */
+public class RotationPolicy {
+    /** Default time before server expiry when a new short URL is requested. */
+    public static final long DEFAULT_REFRESH_MARGIN = 7 * 1000;
+
+    /** Default delay before a failed background refresh is retried. */
+    public static final long DEFAULT_RETRY_DELAY = 10 * 1000;
+
+    private final long mRefreshMargin;
+    private final long mRetryDelay;
+
+    /**
+     * @param refreshMargin    Milliseconds before server expiry when a new short URL is requested.
+     */
+    public RotationPolicy(long refreshMargin) {
+        this(refreshMargin, DEFAULT_RETRY_DELAY);
+    }
+
+    /**
+     * @param refreshMargin    Milliseconds before server expiry when a new short URL is requested.
+     * @param retryDelay       Milliseconds before a failed background refresh is retried.
+     */
+    public RotationPolicy(long refreshMargin, long retryDelay) {
+        mRefreshMargin = refreshMargin;
+        mRetryDelay = retryDelay;
+    }
+
+    public long getRefreshMargin() {
+        return mRefreshMargin;
+    }
+
+    public long getRetryDelay() {
+        return mRetryDelay;
+    }
+
+    /**
+     * @param hasUrl        Whether the beacon has a short URL.
+     * @param expireTime    Expire time of the short URL, or 0 if it never expires.
+     * @param now           Current time.
+     * @return True if a new short URL must be issued before the beacon starts.
+     */
+    public boolean needsNewUrl(boolean hasUrl, long expireTime, long now) {
+        // inclusive, so a refresh that fires right at its deadline does get a new URL
+        return !hasUrl || (0 != expireTime && expireTime - now <= mRefreshMargin);
+    }
+
+    /**
+     * @return True if the short URL is still valid server-side, so it can stay on air while a new one is issued.
+     */
+    public boolean canAdvertiseStale(boolean hasUrl, long expireTime, long now) {
+        return hasUrl && (0 == expireTime || expireTime > now);
+    }
+
+    /**
+     * @param expireTime     Expire time of the short URL.
+     * @param lastAttempt    True if a background refresh is pending or failed, so there's no time
+     *                       left for a refresh before expiry.
+     * @return Time when a new short URL should be requested.
+     */
+    public long getRefreshDeadline(long expireTime, boolean lastAttempt) {
+        return lastAttempt ? expireTime : expireTime - mRefreshMargin;
+    }
+
+    /**
+     * @param expireTime    Expire time of the short URL, or 0 if it never expires.
+     * @return True if the short URL expired, so a failed background refresh can't be retried
+     * while it stays on air, and the beacon must restart.
+     */
+    public boolean hasExpired(long expireTime, long now) {
+        return 0 != expireTime && now >= expireTime;
+    }
+
+    /**
+     * @param expireTime    Expire time of the short URL, which hasn't expired yet.
+     * @return Time to retry a failed background refresh. The last attempt is right at expiry.
+     */
+    public long getRetryDeadline(long expireTime, long now) {
+        return Math.min(now + mRetryDelay, expireTime);
+    }
+}
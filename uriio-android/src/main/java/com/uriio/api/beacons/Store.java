@@ -13,17 +13,31 @@ import com.uriio.beacons.model.Beacon;
 public class Store implements Storage.Persistable {
     static final int FLAG_UPDATE_SHORT_URL = 1;
 
-    private static final int COLUMN_URL_TOKEN = 0;
-    private static final int COLUMN_LONG_URL  = 1;
-    private static final int COLUMN_URL_ID    = 2;
-    private static final int COLUMN_TTL       = 3;
-    private static final int COLUMN_EXPIRES   = 4;
-    private static final int COLUMN_SHORT_URL = 5;
+    static final int COLUMN_URL_TOKEN = 0;
+    static final int COLUMN_LONG_URL  = 1;
+    static final int COLUMN_URL_ID    = 2;
+    static final int COLUMN_TTL       = 3;
+    static final int COLUMN_EXPIRES   = 4;
+    static final int COLUMN_SHORT_URL = 5;
+
+    // beacons storage schema, for direct queries; kind data is kept in the generic columns d0, d1, ...
+    // Not exposed by the beacons library, so UrlRegistry verifies it at runtime, and UrlRegistryTest
+    // checks it against the pinned library version.
+    static final String SQL_TABLE       = "items";
+    static final String SQL_COLUMN_ID   = "_id";
+    static final String SQL_COLUMN_KIND = "kind";
 
     // lazy update statements
     private SQLiteStatement mUpdateStmt = null;
     private SQLiteStatement mUpdateShortUrlStmt = null;
 
+    /**
+     * @return SQL name of the storage column holding the kind-specific value at the given index.
+     */
+    static String dataColumn(int column) {
+        return "d" + column;
+    }
+
     @Override
     public int getKind() {
         return UriioBeacon.KIND;
@@ -1,5 +1,9 @@
 package com.uriio.api.beacons;
 
+import android.os.SystemClock;
+
+import com.uriio.api.Cancelable;
+import com.uriio.api.Clock;
 import com.uriio.beacons.BleService;
 import com.uriio.beacons.BuildConfig;
 import com.uriio.beacons.Callback;
@@ -8,6 +12,8 @@ import com.uriio.beacons.Util;
 import com.uriio.beacons.ble.Advertiser;
 import com.uriio.beacons.model.EddystoneURL;
 
+import java.lang.ref.WeakReference;
+
 import static com.uriio.beacons.BleService.EVENT_START_FAILED;
 
 /**
@@ -30,6 +36,15 @@ public class UriioBeacon extends EddystoneURL {
 
     private long mExpireTime = 0;
 
+    /** A new short URL is being issued in the background while the current one stays on air. */
+    private boolean mRevalidating = false;
+
+    /** The last background issue failed; the current short URL stays on air until it expires. */
+    private boolean mRevalidateFailed = false;
+
+    /** In-flight short URL issue, cancelled if the beacon is stopped or deleted. */
+    private Cancelable mPendingIssue = null;
+
     /**
      * Ephemeral URL spec.
      * @param urlId         The URL registration ID.
@@ -95,13 +110,21 @@ public class UriioBeacon extends EddystoneURL {
     }
 
     public long getMillisecondsUntilExpires() {
-        return 0 == mExpireTime ? Long.MAX_VALUE : mExpireTime - System.currentTimeMillis();
+        return 0 == mExpireTime ? Long.MAX_VALUE : mExpireTime - _clock.currentTimeMillis();
+    }
+
+    /**
+     * @return Wall time at which a new short URL should be requested.
+     */
+    public long getRefreshDeadline() {
+        // if a background refresh is pending or failed, next attempt is the last one before expiry
+        return _policy.getRefreshDeadline(mExpireTime, mRevalidating || mRevalidateFailed);
     }
 
     @Override
     public long getScheduledRefreshTime() {
-        // schedule refresh 7 seconds before actual server timeout
-        return mExpireTime - 7 * 1000;
+        // when an external scheduler is set, it owns the refresh of all beacons
+        return null == _refreshScheduler ? getRefreshDeadline() : 0;
     }
 
     public long getActualExpireTime() {
@@ -118,38 +141,277 @@ public class UriioBeacon extends EddystoneURL {
     }
 
     public interface ShortURLIssuer {
-        void issueBeaconUrl(UriioBeacon beacon, Callback<Boolean> callback);
+        /**
+         * Issues a new short URL for the beacon and applies it.
+         * @return Handle for cancelling the request.
+         */
+        Cancelable issueBeaconUrl(UriioBeacon beacon, Callback<Boolean> callback);
+    }
+
+    /**
+     * Schedules short URL refreshes for beacons that are on air.
+     */
+    public interface RefreshScheduler {
+        /**
+         * Called whenever the beacon starts advertising, with a possibly new expire time.
+         */
+        void schedule(UriioBeacon beacon);
+
+        /**
+         * Called when the beacon is stopped or deleted.
+         */
+        void cancel(UriioBeacon beacon);
+    }
+
+    /**
+     * Notified when a beacon is stopped or deleted, to release any state kept for it.
+     */
+    public interface StopListener {
+        void onBeaconStopped(UriioBeacon beacon);
     }
 
     private static ShortURLIssuer _issuerImpl = null;
+    private static RefreshScheduler _refreshScheduler = null;
+    private static StopListener _stopListener = null;
+    private static boolean _staleWhileRevalidate = false;
+    private static RotationPolicy _policy = new RotationPolicy(RotationPolicy.DEFAULT_REFRESH_MARGIN);
+    private static Clock _clock = Clock.SYSTEM;
+
+    /** Elapsed realtime of the first advertiser start request, or 0 if none yet. */
+    private static long _firstAdvertiseRequestTime = 0;
 
     public static void setIssuer(ShortURLIssuer issuer) {
         _issuerImpl = issuer;
     }
 
+    /**
+     * Sets a scheduler that takes over short URL refreshes from the beacon service.
+     * @param scheduler    The scheduler, or null to let each beacon schedule its own refresh.
+     */
+    public static void setRefreshScheduler(RefreshScheduler scheduler) {
+        _refreshScheduler = scheduler;
+    }
+
+    public static void setStopListener(StopListener listener) {
+        _stopListener = listener;
+    }
+
+    /**
+     * Sets the start mode for beacons whose short URL is about to expire.
+     * @param enabled    If true, a beacon whose short URL is still valid server-side starts
+     *                   advertising it right away, and a new short URL is issued in the background.
+     *                   The beacon fails to start only if its URL expired and a new one can't be issued.
+     *                   If false (default), the beacon starts only after a new short URL is issued.
+     */
+    public static void setStaleWhileRevalidate(boolean enabled) {
+        _staleWhileRevalidate = enabled;
+    }
+
+    /**
+     * Sets the policy that decides when beacons need a new short URL.
+     */
+    public static void setRotationPolicy(RotationPolicy policy) {
+        _policy = policy;
+    }
+
+    public static RotationPolicy getRotationPolicy() {
+        return _policy;
+    }
+
+    /**
+     * Sets the time source used for short URL expiry, refresh and TTL tuning decisions, and for
+     * rotation journal records. Defaults to the system clock.
+     */
+    public static void setClock(Clock clock) {
+        _clock = clock;
+    }
+
+    /**
+     * @return The time source used by all short URL rotation and refresh decisions.
+     */
+    public static Clock getClock() {
+        return _clock;
+    }
+
+    /**
+     * @return The {@link SystemClock#elapsedRealtime()} of the first request to the beacon service to
+     * start an advertiser, or 0 if none yet. The advertiser may still fail to start.
+     */
+    public static long getFirstAdvertiseRequestTime() {
+        return _firstAdvertiseRequestTime;
+    }
+
+    /**
+     * Forgets the first advertiser start request, so the next one is recorded instead.
+     */
+    public static void resetFirstAdvertiseRequestTime() {
+        _firstAdvertiseRequestTime = 0;
+    }
+
+    private void startAdvertiser(BleService service) {
+        if (0 == _firstAdvertiseRequestTime) {
+            _firstAdvertiseRequestTime = SystemClock.elapsedRealtime();
+        }
+        service.startBeaconAdvertiser(this);
+
+        if (null != _refreshScheduler) {
+            _refreshScheduler.schedule(this);
+        }
+    }
+
+    @Override
+    public void stop() {
+        onStopped();
+        super.stop();
+    }
+
+    @Override
+    public void delete() {
+        onStopped();
+        super.delete();
+    }
+
+    private void onStopped() {
+        if (null != _refreshScheduler) {
+            _refreshScheduler.cancel(this);
+        }
+        cancelPendingIssue();
+
+        if (null != _stopListener) {
+            _stopListener.onBeaconStopped(this);
+        }
+    }
+
+    /**
+     * Restarts the beacon through the beacon service, which then decides again whether it needs a
+     * new short URL before going on air, and schedules its next refresh.
+     */
+    public void restartAdvertising() {
+        new UriioEditor().restartBeacon().apply();
+    }
+
+    /**
+     * Issues and applies a new short URL, cancelling any issue already in flight for this beacon.
+     * @param callback    Result callback, called with true on success. Not called if cancelled.
+     * @return Handle for cancelling the request, or null if no issuer is set.
+     */
+    public Cancelable refresh(final Callback<Boolean> callback) {
+        return issue(new IssueHandler(this) {
+            @Override
+            void onIssued(UriioBeacon beacon, boolean success, Throwable error) {
+                if (null != callback) {
+                    callback.onResult(success, error);
+                }
+            }
+        });
+    }
+
+    private Cancelable issue(IssueHandler handler) {
+        cancelPendingIssue();
+
+        if (null != _issuerImpl) {
+            mPendingIssue = _issuerImpl.issueBeaconUrl(this, handler);
+        }
+
+        return mPendingIssue;
+    }
+
+    private void cancelPendingIssue() {
+        if (null != mPendingIssue) {
+            mPendingIssue.cancel();
+            mPendingIssue = null;
+        }
+        mRevalidating = false;
+    }
+
+    /**
+     * Issue result handler that doesn't keep the beacon alive while the request is in flight.
+     */
+    private static abstract class IssueHandler implements Callback<Boolean> {
+        private final WeakReference<UriioBeacon> mBeacon;
+
+        IssueHandler(UriioBeacon beacon) {
+            mBeacon = new WeakReference<>(beacon);
+        }
+
+        @Override
+        public void onResult(Boolean result, Throwable error) {
+            UriioBeacon beacon = mBeacon.get();
+            if (null != beacon) {
+                beacon.mPendingIssue = null;
+                onIssued(beacon, result, error);   // true or false, never null
+            }
+        }
+
+        abstract void onIssued(UriioBeacon beacon, boolean success, Throwable error);
+    }
+
+    /**
+     * Issue result handler that starts the beacon's advertiser, if the service is still alive.
+     */
+    private static class StartHandler extends IssueHandler {
+        private final WeakReference<BleService> mService;
+        private final boolean mRevalidate;
+
+        StartHandler(UriioBeacon beacon, BleService service, boolean revalidate) {
+            super(beacon);
+            mService = new WeakReference<>(service);
+            mRevalidate = revalidate;
+        }
+
+        @Override
+        void onIssued(UriioBeacon beacon, boolean success, Throwable error) {
+            BleService service = mService.get();
+            if (null == service) return;
+
+            if (mRevalidate) {
+                beacon.onRevalidated(service, success, error);
+            }
+            else if (success) {
+                beacon.startAdvertiser(service);
+            }
+            else if (null != error) {
+                service.broadcastError(beacon, EVENT_START_FAILED, error.getMessage());
+            }
+        }
+    }
+
     @Override
-    public void onAdvertiseEnabled(final BleService service) {
-        if (null == getURL() || getMillisecondsUntilExpires() < 7 * 1000) {
+    public void onAdvertiseEnabled(BleService service) {
+        long now = _clock.currentTimeMillis();
+        if (_policy.needsNewUrl(null != getURL(), mExpireTime, now)) {
             if (null == _issuerImpl) {
                 service.broadcastError(this, EVENT_START_FAILED, "No URL provider!");
             }
+            else if (_staleWhileRevalidate && _policy.canAdvertiseStale(null != getURL(), mExpireTime, now)) {
+                // current URL still works, so go on air now and swap it when the new one arrives
+                if (!mRevalidating) {
+                    if (BuildConfig.DEBUG) Util.log(TAG, "Revalidating beacon URL for beacon " + getUUID());
+                    issue(new StartHandler(this, service, true));
+                    mRevalidating = true;
+                }
+                startAdvertiser(service);
+            }
             else {
                 if (BuildConfig.DEBUG) Util.log(TAG, "Updating beacon URL for beacon " + getUUID());
-                _issuerImpl.issueBeaconUrl(this, new Callback<Boolean>() {
-                    @Override
-                    public void onResult(Boolean result, Throwable error) {
-                        if (result) {   // true or false, never null
-                            service.startBeaconAdvertiser(UriioBeacon.this);
-                        }
-                        else if (null != error) {
-                            service.broadcastError(UriioBeacon.this, EVENT_START_FAILED, error.getMessage());
-                        }
-                    }
-                });
+                issue(new StartHandler(this, service, false));
             }
         }
         else {
-            service.startBeaconAdvertiser(this);
+            startAdvertiser(service);
+        }
+    }
+
+    private void onRevalidated(BleService service, boolean success, Throwable error) {
+        mRevalidating = false;
+
+        // on success the new short URL was applied, restarting the advertiser
+        if (!success) {
+            mRevalidateFailed = true;
+
+            if (_policy.hasExpired(mExpireTime, _clock.currentTimeMillis()) && null != error) {
+                service.broadcastError(this, EVENT_START_FAILED, error.getMessage());
+            }
         }
     }
 
@@ -161,6 +423,11 @@ public class UriioBeacon extends EddystoneURL {
     public class UriioEditor extends EddystoneURLEditor {
         private boolean mShortUrlChanged = false;
 
+        private UriioEditor restartBeacon() {
+            mRestartBeacon = true;
+            return this;
+        }
+
         public BaseEditor setShortUrl(String shortUrl, long expireTime) {
             setUrl(shortUrl);
 
@@ -170,17 +437,32 @@ public class UriioBeacon extends EddystoneURL {
             }
 
             mShortUrlChanged = true;
+            mRevalidateFailed = false;
 
             return this;
         }
 
         public UriioEditor setTTL(int timeToLive) {
+            return setTTL(timeToLive, true);
+        }
+
+        /**
+         * Changes the TTL of the short URLs issued from now on.
+         * @param timeToLive    New TTL, in seconds.
+         * @param reissue       If true, a short URL with the new TTL is issued right away and the
+         *                      beacon restarts. If false, the current short URL stays on air until
+         *                      its regular refresh.
+         */
+        public UriioEditor setTTL(int timeToLive, boolean reissue) {
             if (timeToLive != mTimeToLive) {
                 mTimeToLive = timeToLive;
-                mRestartBeacon = true;
 
-                // force a short URL issue since TTL changed
-                setShortUrl(null, 0);
+                if (reissue) {
+                    mRestartBeacon = true;
+
+                    // force a short URL issue since TTL changed
+                    setShortUrl(null, 0);
+                }
             }
             return this;
         }
@@ -0,0 +1,59 @@
+package com.uriio.api.beacons;
+
+/**
+ * Immutable, lightweight view of a saved URL registration, as listed by {@link UrlRegistry}.
+ */
+public class UrlRecord {
+    private final long mStorageId;
+    private final long mUrlId;
+    private final String mUrlToken;
+    private final String mLongUrl;
+    private final int mTimeToLive;
+    private final long mExpireTime;
+    private final String mShortUrl;
+
+    UrlRecord(long storageId, long urlId, String urlToken, String longUrl, int ttl,
+              long expireTime, String shortUrl) {
+        mStorageId = storageId;
+        mUrlId = urlId;
+        mUrlToken = urlToken;
+        mLongUrl = longUrl;
+        mTimeToLive = ttl;
+        mExpireTime = expireTime;
+        mShortUrl = shortUrl;
+    }
+
+    /**
+     * @return The local storage row ID of the saved beacon. See {@link UrlRegistry#loadBeacon(UrlRecord)}.
+     */
+    public long getStorageId() {
+        return mStorageId;
+    }
+
+    public long getUrlId() {
+        return mUrlId;
+    }
+
+    public String getUrlToken() {
+        return mUrlToken;
+    }
+
+    public String getLongUrl() {
+        return mLongUrl;
+    }
+
+    public int getTimeToLive() {
+        return mTimeToLive;
+    }
+
+    /**
+     * @return Expire time of the last issued short URL, or 0 if it never expires.
+     */
+    public long getExpireTime() {
+        return mExpireTime;
+    }
+
+    public String getShortUrl() {
+        return mShortUrl;
+    }
+}
@@ -0,0 +1,155 @@
+package com.uriio.api.beacons;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.uriio.beacons.Beacons;
+import com.uriio.beacons.Storage;
+import com.uriio.beacons.model.Beacon;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Read-only, paged listing of saved URL registrations, without loading them as beacons.
+ */
+public class UrlRegistry {
+    /** Sorts by storage row id, i.e. in the order beacons were saved. */
+    public static final int SORT_NONE      = 0;
+    public static final int SORT_URL_ID    = 1;
+    public static final int SORT_LONG_URL  = 2;
+    public static final int SORT_EXPIRES   = 3;
+
+    private static final String[] PROJECTION = {
+            Store.SQL_COLUMN_ID,
+            Store.dataColumn(Store.COLUMN_URL_ID),
+            Store.dataColumn(Store.COLUMN_URL_TOKEN),
+            Store.dataColumn(Store.COLUMN_LONG_URL),
+            Store.dataColumn(Store.COLUMN_TTL),
+            Store.dataColumn(Store.COLUMN_EXPIRES),
+            Store.dataColumn(Store.COLUMN_SHORT_URL),
+    };
+
+    private static boolean _schemaVerified = false;
+
+    /**
+     * Counts saved URL registrations.
+     * @param longUrlFilter    If not null, only registrations with a long URL containing this text are counted.
+     */
+    public static int getCount(String longUrlFilter) {
+        Cursor cursor = getDatabase().query(Store.SQL_TABLE, new String[] { "COUNT(*)" },
+                getSelection(longUrlFilter), getSelectionArgs(longUrlFilter), null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Loads a page of saved URL registrations. Sorting, filtering and paging are done in SQL.
+     * @param offset           Number of records to skip.
+     * @param limit            Maximum number of records to return.
+     * @param sortOrder        One of the SORT_ constants.
+     * @param longUrlFilter    If not null, only registrations with a long URL containing this text are returned.
+     * @return The records, at most <code>limit</code>.
+     */
+    public static List<UrlRecord> getPage(int offset, int limit, int sortOrder, String longUrlFilter) {
+        Cursor cursor = getDatabase().query(Store.SQL_TABLE, PROJECTION,
+                getSelection(longUrlFilter), getSelectionArgs(longUrlFilter), null, null,
+                getOrderBy(sortOrder), offset + "," + limit);
+
+        try {
+            List<UrlRecord> records = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                records.add(new UrlRecord(cursor.getLong(0), cursor.getLong(1), cursor.getString(2),
+                        cursor.getString(3), cursor.getInt(4), cursor.getLong(5), cursor.getString(6)));
+            }
+            return records;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Resolves a record to its saved beacon, e.g. for starting it.
+     * @return The saved beacon, or null if it was deleted meanwhile.
+     */
+    public static UriioBeacon loadBeacon(UrlRecord record) {
+        // a started beacon is already loaded, and must not be loaded a second time
+        Beacon beacon = Beacons.findActive(record.getStorageId());
+        if (null == beacon) {
+            beacon = Storage.getInstance().getItem(record.getStorageId());
+        }
+
+        return beacon instanceof UriioBeacon ? (UriioBeacon) beacon : null;
+    }
+
+    private static synchronized SQLiteDatabase getDatabase() {
+        SQLiteDatabase db = Storage.getInstance().getReadableDatabase();
+
+        if (!_schemaVerified) {
+            verifySchema(db);
+            _schemaVerified = true;
+        }
+
+        return db;
+    }
+
+    /**
+     * Fails early if the beacons library storage doesn't have the table and columns queried here.
+     */
+    private static void verifySchema(SQLiteDatabase db) {
+        Set<String> columns = new HashSet<>();
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + Store.SQL_TABLE + ")", null);
+        try {
+            int nameIndex = cursor.getColumnIndexOrThrow("name");
+            while (cursor.moveToNext()) {
+                columns.add(cursor.getString(nameIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        Set<String> required = new HashSet<>();
+        required.add(Store.SQL_COLUMN_KIND);
+        for (String column : PROJECTION) {
+            required.add(column);
+        }
+
+        if (!columns.containsAll(required)) {
+            throw new IllegalStateException("Unsupported beacons storage schema, found columns " + columns);
+        }
+    }
+
+    private static String getSelection(String longUrlFilter) {
+        String selection = Store.SQL_COLUMN_KIND + "=" + UriioBeacon.KIND;
+        if (null != longUrlFilter) {
+            selection += " AND " + Store.dataColumn(Store.COLUMN_LONG_URL) + " LIKE ? ESCAPE '\\'";
+        }
+        return selection;
+    }
+
+    private static String[] getSelectionArgs(String longUrlFilter) {
+        if (null == longUrlFilter) return null;
+
+        String escaped = longUrlFilter.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+        return new String[] { "%" + escaped + "%" };
+    }
+
+    private static String getOrderBy(int sortOrder) {
+        // always end with the row id, so the order is stable across pages
+        switch (sortOrder) {
+            case SORT_URL_ID:
+                return Store.dataColumn(Store.COLUMN_URL_ID) + "," + Store.SQL_COLUMN_ID;
+            case SORT_LONG_URL:
+                return Store.dataColumn(Store.COLUMN_LONG_URL) + "," + Store.SQL_COLUMN_ID;
+            case SORT_EXPIRES:
+                return Store.dataColumn(Store.COLUMN_EXPIRES) + "," + Store.SQL_COLUMN_ID;
+            default:
+                return Store.SQL_COLUMN_ID;
+        }
+    }
+}
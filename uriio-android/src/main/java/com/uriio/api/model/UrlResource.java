@@ -59,4 +59,11 @@ public class UrlResource {
     public String getUrl() {
         return url;
     }
+
+    /**
+     * @return Total number of redirects served for this URL.
+     */
+    public long getHits() {
+        return hits;
+    }
 }
\ No newline at end of file
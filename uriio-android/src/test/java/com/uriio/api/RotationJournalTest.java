@@ -0,0 +1,200 @@
+package com.uriio.api;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RotationJournalTest {
+    /** Smallest allowed segment size; fits 7 records with {@link #url(int)} URLs. */
+    private static final int SEGMENT_SIZE = 20 + 34 + 256;
+
+    /** Size of a record holding a {@link #url(int)} URL. */
+    private static final int RECORD_SIZE = 34 + 3;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mDir;
+    private final List<String> mLog = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = mFolder.newFolder("journal");
+    }
+
+    private RotationJournal open(int segmentSize, long maxBytes) throws IOException {
+        return new RotationJournal(mDir, segmentSize, maxBytes) {
+            @Override
+            void log(String message) {
+                mLog.add(message);
+            }
+        };
+    }
+
+    private static String url(int i) {
+        return String.format("u%02d", i);
+    }
+
+    private static void append(RotationJournal journal, int from, int to) {
+        for (int i = from; i < to; i++) {
+            journal.append(i % 3 + 1, url(i), 1000 + i, 2000 + i);
+        }
+    }
+
+    private static void assertEntries(List<RotationJournal.Entry> entries, int from, int to) {
+        assertEquals(to - from, entries.size());
+        for (int i = from; i < to; i++) {
+            RotationJournal.Entry entry = entries.get(i - from);
+            assertEquals(i % 3 + 1, entry.getBeaconId());
+            assertEquals(url(i), entry.getShortUrl());
+            assertEquals(1000 + i, entry.getIssueTime());
+            assertEquals(2000 + i, entry.getExpireTime());
+        }
+    }
+
+    private int countSegments() {
+        String[] names = mDir.list();
+        int count = 0;
+        for (String name : names) {
+            if (name.endsWith(".rj")) count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void queriesAcrossRollover() throws IOException {
+        RotationJournal journal = open(SEGMENT_SIZE, 100 * SEGMENT_SIZE);
+        append(journal, 0, 20);
+
+        assertEquals(3, countSegments());
+        assertEntries(journal.query(0, Long.MAX_VALUE, 0), 0, 20);
+    }
+
+    @Test
+    public void filtersByBeacon() throws IOException {
+        RotationJournal journal = open(SEGMENT_SIZE, 100 * SEGMENT_SIZE);
+        append(journal, 0, 20);
+
+        List<RotationJournal.Entry> entries = journal.query(0, Long.MAX_VALUE, 2);
+        assertEquals(7, entries.size());
+        for (RotationJournal.Entry entry : entries) {
+            assertEquals(2, entry.getBeaconId());
+        }
+    }
+
+    @Test
+    public void fromTimeIsInclusiveAndToTimeExclusive() throws IOException {
+        RotationJournal journal = open(SEGMENT_SIZE, 100 * SEGMENT_SIZE);
+        append(journal, 0, 20);
+
+        // the range starts and ends in the middle of a segment
+        assertEntries(journal.query(1005, 1013, 0), 5, 13);
+        assertEntries(journal.query(1008, 1009, 0), 8, 9);
+        assertEquals(0, journal.query(1008, 1008, 0).size());
+    }
+
+    @Test
+    public void resumesAfterReopen() throws IOException {
+        append(open(SEGMENT_SIZE, 100 * SEGMENT_SIZE), 0, 5);
+
+        RotationJournal journal = open(SEGMENT_SIZE, 100 * SEGMENT_SIZE);
+        append(journal, 5, 10);
+
+        // the reopened segment is filled up before a new one starts
+        assertEquals(2, countSegments());
+        assertEntries(journal.query(0, Long.MAX_VALUE, 0), 0, 10);
+        assertEntries(open(SEGMENT_SIZE, 100 * SEGMENT_SIZE).query(0, Long.MAX_VALUE, 0), 0, 10);
+    }
+
+    @Test
+    public void startsNewSegmentAfterSizeChange() throws IOException {
+        append(open(SEGMENT_SIZE, 100 * SEGMENT_SIZE), 0, 5);
+
+        RotationJournal journal = open(2 * SEGMENT_SIZE, 100 * SEGMENT_SIZE);
+        assertEntries(journal.query(0, Long.MAX_VALUE, 0), 0, 5);
+
+        append(journal, 5, 10);
+        assertEquals(2, countSegments());
+        assertEntries(journal.query(0, Long.MAX_VALUE, 0), 0, 10);
+    }
+
+    @Test
+    public void evictsOldestSegmentsOverBudget() throws IOException {
+        RotationJournal journal = open(SEGMENT_SIZE, 2 * SEGMENT_SIZE);
+        append(journal, 0, 20);
+
+        // segments hold records 0-6, 7-13 and 14-19; the first one was deleted
+        assertEquals(2, countSegments());
+        assertEntries(journal.query(0, Long.MAX_VALUE, 0), 7, 20);
+    }
+
+    @Test
+    public void ignoresStrayFiles() throws IOException {
+        assertTrue(new File(mDir, "notes.rj").createNewFile());
+
+        RotationJournal journal = open(SEGMENT_SIZE, 100 * SEGMENT_SIZE);
+        append(journal, 0, 3);
+        assertEntries(journal.query(0, Long.MAX_VALUE, 0), 0, 3);
+    }
+
+    @Test
+    public void dropsTooLongUrl() throws IOException {
+        RotationJournal journal = open(SEGMENT_SIZE, 100 * SEGMENT_SIZE);
+        journal.append(1, new String(new char[300]).replace('\0', 'x'), 1000, 2000);
+
+        assertEquals(1, mLog.size());
+        assertEquals(0, journal.query(0, Long.MAX_VALUE, 0).size());
+    }
+
+    @Test
+    public void tornRecordIsDroppedAndOverwritten() throws IOException {
+        append(open(SEGMENT_SIZE, 100 * SEGMENT_SIZE), 0, 3);
+
+        // a killed append: the size word of a fourth record landed, its payload didn't
+        File segment = new File(mDir, "000000000000.rj");
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        try {
+            raf.seek(20 + 3 * RECORD_SIZE);
+            raf.writeInt(RECORD_SIZE);
+            // and stale bytes further on look like the size word of a record
+            raf.seek(20 + 6 * RECORD_SIZE);
+            raf.writeInt(RECORD_SIZE);
+        } finally {
+            raf.close();
+        }
+
+        RotationJournal journal = open(SEGMENT_SIZE, 100 * SEGMENT_SIZE);
+        assertEntries(journal.query(0, Long.MAX_VALUE, 0), 0, 3);
+
+        append(journal, 3, 6);
+        assertEntries(journal.query(0, Long.MAX_VALUE, 0), 0, 6);
+        assertEntries(open(SEGMENT_SIZE, 100 * SEGMENT_SIZE).query(0, Long.MAX_VALUE, 0), 0, 6);
+    }
+
+    @Test
+    public void corruptRecordEndsSegment() throws IOException {
+        append(open(SEGMENT_SIZE, 100 * SEGMENT_SIZE), 0, 5);
+
+        // flip a byte of the third record's URL
+        RandomAccessFile raf = new RandomAccessFile(new File(mDir, "000000000000.rj"), "rw");
+        try {
+            raf.seek(20 + 2 * RECORD_SIZE + 34);
+            raf.writeByte('x');
+        } finally {
+            raf.close();
+        }
+
+        RotationJournal journal = open(SEGMENT_SIZE, 100 * SEGMENT_SIZE);
+        assertEntries(journal.query(0, Long.MAX_VALUE, 0), 0, 2);
+    }
+}
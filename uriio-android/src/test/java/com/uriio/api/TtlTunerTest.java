@@ -0,0 +1,123 @@
+package com.uriio.api;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TtlTunerTest {
+    private static final long MINUTE = 60 * 1000;
+
+    private TtlTuner mTuner;
+    private TtlTuner.Sample mSample;
+    private long mTime;
+    private long mHits;
+
+    @Before
+    public void setUp() {
+        // below 1 hit/min the TTL doubles, above 10 hits/min it halves, after 2 samples in a row
+        mTuner = new TtlTuner(60, 960, 1, 10);
+        mTime = 0;
+        mHits = 1000;
+        mSample = new TtlTuner.Sample(mHits, mTime);
+    }
+
+    /** Takes a sample one minute after the previous one, with the given hits in between. */
+    private int sample(int ttl, long hitsPerMinute) {
+        mTime += MINUTE;
+        mHits += hitsPerMinute;
+        return mTuner.decide(mSample, mHits, mTime, ttl);
+    }
+
+    @Test
+    public void keepsTtlBetweenThresholds() {
+        for (long hits : new long[] {1, 5, 10, 3, 7}) {
+            assertEquals(240, sample(240, hits));
+        }
+    }
+
+    @Test
+    public void needsConsecutiveSamplesBeyondThreshold() {
+        assertEquals(240, sample(240, 0));
+        assertEquals(480, sample(240, 0));
+
+        // counting starts over after a change
+        assertEquals(480, sample(480, 0));
+        assertEquals(960, sample(480, 0));
+
+        assertEquals(960, sample(960, 50));
+        assertEquals(480, sample(960, 50));
+    }
+
+    @Test
+    public void doesNotFlapBetweenThresholds() {
+        // alternating demand never crosses the same threshold twice in a row
+        for (int i = 0; i < 10; i++) {
+            assertEquals(240, sample(240, 0));
+            assertEquals(240, sample(240, 50));
+        }
+
+        // and a sample between the thresholds resets the count
+        assertEquals(240, sample(240, 0));
+        assertEquals(240, sample(240, 5));
+        assertEquals(240, sample(240, 0));
+    }
+
+    @Test
+    public void honorsSamplesToChange() {
+        mTuner.setSamplesToChange(3);
+
+        assertEquals(240, sample(240, 0));
+        assertEquals(240, sample(240, 0));
+        assertEquals(480, sample(240, 0));
+    }
+
+    @Test
+    public void staysWithinBounds() {
+        assertEquals(960, sample(960, 0));
+        assertEquals(960, sample(960, 0));
+
+        assertEquals(60, sample(60, 50));
+        assertEquals(60, sample(60, 50));
+    }
+
+    @Test
+    public void halvingStopsAtLowerBound() {
+        assertEquals(90, sample(90, 50));
+        assertEquals(60, sample(90, 50));
+    }
+
+    @Test
+    public void clampsTtlSetOutsideBounds() {
+        assertEquals(960, sample(5000, 5));
+        assertEquals(60, sample(10, 5));
+    }
+
+    @Test
+    public void decreasedHitCountOnlySetsNewBaseline() {
+        assertEquals(240, sample(240, 0));
+
+        // the server count went down; no rate is measured from it
+        mTime += MINUTE;
+        mHits = 10;
+        assertEquals(240, mTuner.decide(mSample, mHits, mTime, 240));
+        assertEquals(10, mSample.hits);
+
+        // the next sample is measured from the new baseline, and still counts as the second low one
+        assertEquals(480, sample(240, 0));
+    }
+
+    @Test
+    public void ignoresSampleWithoutElapsedTime() {
+        assertEquals(240, mTuner.decide(mSample, mHits + 100, mTime, 240));
+        assertEquals(1000, mSample.hits);
+    }
+
+    @Test
+    public void recordsHitRate() {
+        mTime += 2 * MINUTE;
+        mHits += 30;
+        mTuner.decide(mSample, mHits, mTime, 240);
+        assertEquals(15, mSample.hitRate, 1e-9);
+    }
+}
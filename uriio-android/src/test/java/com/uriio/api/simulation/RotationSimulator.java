@@ -0,0 +1,427 @@
+package com.uriio.api.simulation;
+
+import com.uriio.api.beacons.RotationPolicy;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Deterministic discrete-event simulation of short URL rotation for many beacons, in virtual time.
+ * This is a model: UriioBeacon needs the Android beacon service, so its decisions are replayed here
+ * rather than run. Each mode takes the same decisions through the same {@link RotationPolicy}:
+ * <ul>
+ *     <li>A failed blocking issue leaves the beacon off air for good, as the beacon service only
+ *     reports the start failure.</li>
+ *     <li>A failed stale-while-revalidate issue keeps the current URL on air until its expiry,
+ *     when the beacon restarts with a blocking issue.</li>
+ *     <li>A failed refresh queue issue is retried while the URL is valid, and restarts the beacon
+ *     once it expired.</li>
+ * </ul>
+ * Runs are reproducible for a given seed.
+ */
+public class RotationSimulator {
+    /** The beacon service restarts each beacon when it's due, off air until a new URL is issued. */
+    public static final int MODE_RESTART_BLOCKING = 0;
+
+    /** As above, but advertising the still valid URL meanwhile, like {@code UriioBeacon.setStaleWhileRevalidate}. */
+    public static final int MODE_RESTART_STALE    = 1;
+
+    /** A single refresh queue refreshes beacons while they stay on air, with one wakeup per slack interval. */
+    public static final int MODE_REFRESH_QUEUE    = 2;
+
+    private static final int EVENT_START       = 0;
+    private static final int EVENT_REFRESH     = 1;
+    private static final int EVENT_WAKEUP      = 2;
+    private static final int EVENT_ISSUE_DONE  = 3;
+
+    private static class Beacon {
+        final int index;
+        boolean hasUrl = false;
+        long expireTime = 0;
+        boolean onAir = false;
+        boolean lastAttempt = false;
+
+        /** Token of the current in-flight issue, 0 if none. */
+        long issueToken = 0;
+        boolean issueBlocking;
+
+        /** Token of the currently valid refresh event, in restart modes. */
+        long refreshToken = 0;
+
+        /** Refresh deadline in queue mode, or -1 if not queued. */
+        long deadline = -1;
+
+        long accountedTime = 0;
+        long deadAir = 0;
+
+        Beacon(int index) {
+            this.index = index;
+        }
+    }
+
+    private static class Event {
+        final long time;
+        final long seq;
+        final int type;
+        final Beacon beacon;
+        final long token;
+        final boolean success;
+
+        Event(long time, long seq, int type, Beacon beacon, long token, boolean success) {
+            this.time = time;
+            this.seq = seq;
+            this.type = type;
+            this.beacon = beacon;
+            this.token = token;
+            this.success = success;
+        }
+    }
+
+    private int mBeaconCount = 100;
+    private int mTimeToLive = 300;
+    private long mDuration = 24 * 3600 * 1000L;
+    private long mStartSpread = 60 * 1000;
+    private long mSlack = 0;
+    private long mBucketSize = 1000;
+    private int mMode = MODE_RESTART_BLOCKING;
+    private long mSeed = 0;
+    private RotationPolicy mPolicy = new RotationPolicy(RotationPolicy.DEFAULT_REFRESH_MARGIN);
+    private SimulatedIssuer mIssuer = new SimulatedIssuer();
+
+    // run state
+    private VirtualClock mClock;
+    private Random mRandom;
+    private long mSeq;
+    private long mIssueSeq;
+    private PriorityQueue<Event> mEvents;
+    private PriorityQueue<Beacon> mRefreshQueue;
+    private long mPendingWakeup;
+    private long mLastWakeupTime;
+    private Map<Long, Integer> mBuckets;
+    private SimulationReport mReport;
+
+    public RotationSimulator setBeaconCount(int beaconCount) {
+        mBeaconCount = beaconCount;
+        return this;
+    }
+
+    /**
+     * @param timeToLive    Short URL TTL in seconds, or 0 for URLs that never expire.
+     */
+    public RotationSimulator setTimeToLive(int timeToLive) {
+        mTimeToLive = timeToLive;
+        return this;
+    }
+
+    /**
+     * @param durationMillis    Simulated virtual time.
+     */
+    public RotationSimulator setDuration(long durationMillis) {
+        mDuration = durationMillis;
+        return this;
+    }
+
+    /**
+     * @param startSpreadMillis    Beacons are started at uniformly random times within this interval.
+     */
+    public RotationSimulator setStartSpread(long startSpreadMillis) {
+        mStartSpread = startSpreadMillis;
+        return this;
+    }
+
+    /**
+     * @param mode    One of the MODE_ constants.
+     */
+    public RotationSimulator setMode(int mode) {
+        mMode = mode;
+        return this;
+    }
+
+    /**
+     * @param slackMillis    Refresh queue coalescing slack, used by {@link #MODE_REFRESH_QUEUE}.
+     */
+    public RotationSimulator setSlack(long slackMillis) {
+        mSlack = slackMillis;
+        return this;
+    }
+
+    /**
+     * @param bucketMillis    Time bucket used for measuring request burstiness.
+     */
+    public RotationSimulator setBucketSize(long bucketMillis) {
+        mBucketSize = bucketMillis;
+        return this;
+    }
+
+    public RotationSimulator setPolicy(RotationPolicy policy) {
+        mPolicy = policy;
+        return this;
+    }
+
+    public RotationSimulator setIssuer(SimulatedIssuer issuer) {
+        mIssuer = issuer;
+        return this;
+    }
+
+    public RotationSimulator setSeed(long seed) {
+        mSeed = seed;
+        return this;
+    }
+
+    /**
+     * Runs the simulation from virtual time 0 until the configured duration.
+     * @return The collected metrics.
+     */
+    public SimulationReport run() {
+        mClock = new VirtualClock(0);
+        mRandom = new Random(mSeed);
+        mSeq = 0;
+        mIssueSeq = 0;
+        mEvents = new PriorityQueue<>(1024, new Comparator<Event>() {
+            @Override
+            public int compare(Event lhs, Event rhs) {
+                if (lhs.time != rhs.time) return lhs.time < rhs.time ? -1 : 1;
+                return lhs.seq < rhs.seq ? -1 : (lhs.seq == rhs.seq ? 0 : 1);
+            }
+        });
+        mRefreshQueue = new PriorityQueue<>(Math.max(1, mBeaconCount), new Comparator<Beacon>() {
+            @Override
+            public int compare(Beacon lhs, Beacon rhs) {
+                if (lhs.deadline != rhs.deadline) return lhs.deadline < rhs.deadline ? -1 : 1;
+                return lhs.index - rhs.index;
+            }
+        });
+        mPendingWakeup = -1;
+        mLastWakeupTime = -1;
+        mBuckets = new HashMap<>();
+        mReport = new SimulationReport(mBeaconCount, mDuration);
+
+        Beacon[] beacons = new Beacon[mBeaconCount];
+        for (int i = 0; i < mBeaconCount; i++) {
+            beacons[i] = new Beacon(i);
+            long startTime = (long) (mRandom.nextDouble() * mStartSpread);
+            beacons[i].accountedTime = startTime;
+            post(startTime, EVENT_START, beacons[i], 0, false);
+        }
+
+        while (!mEvents.isEmpty() && mEvents.peek().time < mDuration) {
+            Event event = mEvents.poll();
+            mClock.setTime(event.time);
+            dispatch(event);
+        }
+
+        mClock.setTime(Math.max(mClock.currentTimeMillis(), mDuration));
+        for (Beacon beacon : beacons) {
+            account(beacon);
+            mReport.addBeaconDeadAir(beacon.deadAir);
+        }
+
+        int peak = 0;
+        for (int count : mBuckets.values()) {
+            peak = Math.max(peak, count);
+        }
+        mReport.setPeakRequests(peak, mBucketSize);
+
+        return mReport;
+    }
+
+    private void dispatch(Event event) {
+        Beacon beacon = event.beacon;
+        switch (event.type) {
+            case EVENT_START:
+                start(beacon);
+                break;
+            case EVENT_REFRESH:
+                if (event.token == beacon.refreshToken) {
+                    countWakeup();
+                    // the beacon service restarts the beacon, which decides again what to do
+                    start(beacon);
+                }
+                break;
+            case EVENT_WAKEUP:
+                onWakeup();
+                break;
+            case EVENT_ISSUE_DONE:
+                if (event.token == beacon.issueToken) {
+                    onIssued(beacon, event.success);
+                }
+                break;
+        }
+    }
+
+    private void start(Beacon beacon) {
+        long now = mClock.currentTimeMillis();
+
+        if (mPolicy.needsNewUrl(beacon.hasUrl, beacon.expireTime, now)) {
+            if (MODE_RESTART_STALE == mMode
+                    && mPolicy.canAdvertiseStale(beacon.hasUrl, beacon.expireTime, now)) {
+                setOnAir(beacon, true);
+                if (0 == beacon.issueToken) {
+                    beacon.lastAttempt = true;
+                    issue(beacon, false);
+                }
+                scheduleRefresh(beacon);
+            } else {
+                setOnAir(beacon, false);
+                issue(beacon, true);
+            }
+        } else {
+            setOnAir(beacon, true);
+            scheduleRefresh(beacon);
+        }
+    }
+
+    private void issue(Beacon beacon, boolean blocking) {
+        long now = mClock.currentTimeMillis();
+
+        if (0 != beacon.issueToken) {
+            // a newer issue cancels the one in flight, like UriioBeacon does
+            mReport.onIssueCanceled();
+        }
+
+        mReport.onIssueRequested();
+        Long bucket = now / mBucketSize;
+        Integer count = mBuckets.get(bucket);
+        mBuckets.put(bucket, null == count ? 1 : count + 1);
+
+        boolean success = mIssuer.nextSuccess(mRandom, now);
+        long latency = mIssuer.nextLatency(mRandom);
+
+        beacon.issueToken = ++mIssueSeq;
+        beacon.issueBlocking = blocking;
+        post(now + latency, EVENT_ISSUE_DONE, beacon, beacon.issueToken, success);
+    }
+
+    private void onIssued(Beacon beacon, boolean success) {
+        long now = mClock.currentTimeMillis();
+        beacon.issueToken = 0;
+
+        if (success) {
+            if (beacon.hasUrl && 0 != beacon.expireTime && beacon.expireTime > now) {
+                mReport.addUnusedValidity(beacon.expireTime - now);
+            }
+
+            // applying the new URL restarts the beacon, which now has a valid URL
+            account(beacon);
+            beacon.hasUrl = true;
+            beacon.expireTime = 0 == mTimeToLive ? 0 : now + mTimeToLive * 1000L;
+            beacon.lastAttempt = false;
+            setOnAir(beacon, true);
+            scheduleRefresh(beacon);
+            return;
+        }
+
+        mReport.onIssueFailed();
+
+        if (beacon.issueBlocking) {
+            // the service reports the start failure and nothing restarts the beacon
+            cancelRefresh(beacon);
+            setOnAir(beacon, false);
+        } else if (MODE_REFRESH_QUEUE == mMode) {
+            if (mPolicy.hasExpired(beacon.expireTime, now)) {
+                // expired, so the queue restarts the beacon, off air until a new URL is issued
+                start(beacon);
+            } else {
+                // retry while the current URL is valid
+                queue(beacon, mPolicy.getRetryDeadline(beacon.expireTime, now));
+            }
+        } else {
+            // keep advertising the current URL; the refresh already set at expiry restarts the beacon
+            beacon.lastAttempt = true;
+        }
+    }
+
+    private void scheduleRefresh(Beacon beacon) {
+        if (0 == beacon.expireTime) return;
+
+        long deadline = Math.max(mClock.currentTimeMillis(),
+                mPolicy.getRefreshDeadline(beacon.expireTime, beacon.lastAttempt));
+
+        if (MODE_REFRESH_QUEUE == mMode) {
+            queue(beacon, deadline);
+        } else {
+            beacon.refreshToken = ++mSeq;
+            post(deadline, EVENT_REFRESH, beacon, beacon.refreshToken, false);
+        }
+    }
+
+    private void queue(Beacon beacon, long deadline) {
+        if (-1 != beacon.deadline) {
+            mRefreshQueue.remove(beacon);
+        }
+        beacon.deadline = deadline;
+        mRefreshQueue.add(beacon);
+        updateWakeup();
+    }
+
+    private void cancelRefresh(Beacon beacon) {
+        beacon.refreshToken = 0;
+
+        if (-1 != beacon.deadline) {
+            mRefreshQueue.remove(beacon);
+            beacon.deadline = -1;
+        }
+    }
+
+    private void onWakeup() {
+        if (mClock.currentTimeMillis() != mPendingWakeup) return;   // replaced by an earlier one
+        mPendingWakeup = -1;
+        countWakeup();
+
+        long limit = mClock.currentTimeMillis() + mSlack;
+        while (!mRefreshQueue.isEmpty() && mRefreshQueue.peek().deadline <= limit) {
+            Beacon beacon = mRefreshQueue.poll();
+            beacon.deadline = -1;
+            issue(beacon, false);
+        }
+
+        updateWakeup();
+    }
+
+    private void updateWakeup() {
+        if (mRefreshQueue.isEmpty()) return;
+
+        long deadline = mRefreshQueue.peek().deadline;
+        if (deadline != mPendingWakeup) {
+            mPendingWakeup = deadline;
+            post(deadline, EVENT_WAKEUP, null, 0, false);
+        }
+    }
+
+    private void countWakeup() {
+        // events due at the same instant are served by the same wakeup
+        if (mClock.currentTimeMillis() != mLastWakeupTime) {
+            mLastWakeupTime = mClock.currentTimeMillis();
+            mReport.onWakeup();
+        }
+    }
+
+    private void setOnAir(Beacon beacon, boolean onAir) {
+        account(beacon);
+        beacon.onAir = onAir;
+    }
+
+    /**
+     * Adds the dead air since the last accounting: time off air, or on air with an expired URL.
+     */
+    private void account(Beacon beacon) {
+        long now = mClock.currentTimeMillis();
+        long from = beacon.accountedTime;
+        if (now <= from) return;
+
+        if (!beacon.onAir) {
+            beacon.deadAir += now - from;
+        } else if (0 != beacon.expireTime && now > beacon.expireTime) {
+            beacon.deadAir += now - Math.max(from, beacon.expireTime);
+        }
+
+        beacon.accountedTime = now;
+    }
+
+    private void post(long time, int type, Beacon beacon, long token, boolean success) {
+        mEvents.add(new Event(time, ++mSeq, type, beacon, token, success));
+    }
+}
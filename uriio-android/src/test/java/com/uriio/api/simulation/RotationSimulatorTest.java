@@ -0,0 +1,116 @@
+package com.uriio.api.simulation;
+
+import com.uriio.api.beacons.RotationPolicy;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class RotationSimulatorTest {
+    private static final long HOUR = 3600 * 1000;
+
+    /** A single beacon with a 60 s TTL, started at time 0, with a fixed 500 ms issue latency. */
+    private static RotationSimulator singleBeacon(int mode, SimulatedIssuer issuer) {
+        return new RotationSimulator()
+                .setBeaconCount(1)
+                .setTimeToLive(60)
+                .setStartSpread(0)
+                .setDuration(HOUR)
+                .setMode(mode)
+                .setIssuer(issuer);
+    }
+
+    @Test
+    public void sameSeedGivesSameReport() {
+        for (int mode = RotationSimulator.MODE_RESTART_BLOCKING; mode <= RotationSimulator.MODE_REFRESH_QUEUE; mode++) {
+            String first = run(mode).toString();
+            String second = run(mode).toString();
+            assertEquals(first, second);
+        }
+    }
+
+    private static SimulationReport run(int mode) {
+        return new RotationSimulator()
+                .setBeaconCount(200)
+                .setSeed(42)
+                .setMode(mode)
+                .setSlack(5000)
+                .setIssuer(new SimulatedIssuer().setLatency(100, 3000).setFailureRate(0.05))
+                .run();
+    }
+
+    @Test
+    public void blockingRestartIsOffAirDuringEachIssue() {
+        SimulationReport report = singleBeacon(RotationSimulator.MODE_RESTART_BLOCKING,
+                new SimulatedIssuer().setLatency(500, 500)).run();
+
+        // first issue at 0, then one every 53.5 s (60 s TTL minus the 7 s margin, plus latency)
+        assertEquals(68, report.getIssueRequests());
+        assertEquals(68 * 500, report.getTotalDeadAir());
+    }
+
+    @Test
+    public void staleRestartIsOffAirOnlyForFirstIssue() {
+        SimulationReport report = singleBeacon(RotationSimulator.MODE_RESTART_STALE,
+                new SimulatedIssuer().setLatency(500, 500)).run();
+
+        assertEquals(68, report.getIssueRequests());
+        assertEquals(500, report.getTotalDeadAir());
+    }
+
+    @Test
+    public void failedBlockingIssueLeavesBeaconOffAir() {
+        // refresh at 107 s falls in the outage; the beacon service doesn't retry a failed start
+        SimulationReport report = singleBeacon(RotationSimulator.MODE_RESTART_BLOCKING,
+                new SimulatedIssuer().setLatency(500, 500).addOutage(100 * 1000, 160 * 1000)).run();
+
+        assertEquals(3, report.getIssueRequests());
+        assertEquals(1, report.getFailedIssues());
+        assertEquals(500 + 500 + (HOUR - 107 * 1000), report.getTotalDeadAir());
+    }
+
+    @Test
+    public void failedRevalidationKeepsUrlOnAirUntilExpiry() {
+        // revalidation at 107 s fails, the blocking restart at expiry (114 s) fails too
+        SimulationReport report = singleBeacon(RotationSimulator.MODE_RESTART_STALE,
+                new SimulatedIssuer().setLatency(500, 500).addOutage(100 * 1000, 160 * 1000)).run();
+
+        assertEquals(4, report.getIssueRequests());
+        assertEquals(2, report.getFailedIssues());
+        assertEquals(500 + (HOUR - 114 * 1000), report.getTotalDeadAir());
+    }
+
+    @Test
+    public void refreshQueueRestartsExpiredBeacon() {
+        // fails at 107 s, retried at expiry (114 s), then the restart's blocking issue fails too
+        SimulationReport report = singleBeacon(RotationSimulator.MODE_REFRESH_QUEUE,
+                new SimulatedIssuer().setLatency(500, 500).addOutage(100 * 1000, 160 * 1000)).run();
+
+        assertEquals(5, report.getIssueRequests());
+        assertEquals(3, report.getFailedIssues());
+        assertEquals(500 + (HOUR - 114 * 1000), report.getTotalDeadAir());
+    }
+
+    @Test
+    public void refreshQueueRetriesAtPolicyDelay() {
+        // fails at 107 s, retried at 109.5 s after the outage, before the URL expires at 114 s
+        SimulationReport report = singleBeacon(RotationSimulator.MODE_REFRESH_QUEUE,
+                new SimulatedIssuer().setLatency(500, 500).addOutage(100 * 1000, 108 * 1000))
+                .setPolicy(new RotationPolicy(RotationPolicy.DEFAULT_REFRESH_MARGIN, 2000))
+                .run();
+
+        assertEquals(1, report.getFailedIssues());
+        assertEquals(500, report.getTotalDeadAir());
+    }
+
+    @Test
+    public void refreshQueueLastRetryIsAtExpiry() {
+        // the default 10 s retry delay would be past expiry, so the retry is at 114 s, when the
+        // URL just expired: on air with an expired URL until the new one arrives
+        SimulationReport report = singleBeacon(RotationSimulator.MODE_REFRESH_QUEUE,
+                new SimulatedIssuer().setLatency(500, 500).addOutage(100 * 1000, 108 * 1000)).run();
+
+        assertEquals(1, report.getFailedIssues());
+        assertEquals(500 + 500, report.getTotalDeadAir());
+    }
+}
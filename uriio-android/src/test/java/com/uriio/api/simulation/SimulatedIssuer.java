@@ -0,0 +1,60 @@
+package com.uriio.api.simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Models the short URL issue API: response latency, random failures, and outage periods.
+ * This is not a {@link com.uriio.api.beacons.UriioBeacon.ShortURLIssuer}: that interface issues for
+ * a UriioBeacon and answers through a callback, while the simulated beacons aren't UriioBeacon
+ * instances, which need the Android beacon library, and each issue's outcome is drawn up front to
+ * be posted as a virtual-time event.
+ */
+public class SimulatedIssuer {
+    private long mMinLatency = 100;
+    private long mMaxLatency = 500;
+    private double mFailureRate = 0;
+    private final List<long[]> mOutages = new ArrayList<>();
+
+    /**
+     * Sets the range of response latencies. Each request gets a uniformly random latency within it.
+     */
+    public SimulatedIssuer setLatency(long minMillis, long maxMillis) {
+        if (minMillis < 0 || maxMillis < minMillis) {
+            throw new IllegalArgumentException("Invalid latency range");
+        }
+        mMinLatency = minMillis;
+        mMaxLatency = maxMillis;
+        return this;
+    }
+
+    /**
+     * @param failureRate    Probability for a request to fail, between 0 and 1.
+     */
+    public SimulatedIssuer setFailureRate(double failureRate) {
+        mFailureRate = failureRate;
+        return this;
+    }
+
+    /**
+     * Adds a period, relative to the simulation start, during which every request fails.
+     */
+    public SimulatedIssuer addOutage(long startMillis, long endMillis) {
+        mOutages.add(new long[] { startMillis, endMillis });
+        return this;
+    }
+
+    long nextLatency(Random random) {
+        return mMinLatency + (long) (random.nextDouble() * (mMaxLatency - mMinLatency));
+    }
+
+    boolean nextSuccess(Random random, long requestTime) {
+        for (long[] outage : mOutages) {
+            if (requestTime >= outage[0] && requestTime < outage[1]) {
+                return false;
+            }
+        }
+        return random.nextDouble() >= mFailureRate;
+    }
+}
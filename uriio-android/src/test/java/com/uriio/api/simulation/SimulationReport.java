@@ -0,0 +1,126 @@
+package com.uriio.api.simulation;
+
+import java.util.Locale;
+
+/**
+ * Metrics collected by a {@link RotationSimulator} run.
+ */
+public class SimulationReport {
+    private final int mBeaconCount;
+    private final long mDuration;
+
+    private long mIssueRequests = 0;
+    private long mFailedIssues = 0;
+    private long mCanceledIssues = 0;
+    private long mWakeups = 0;
+    private long mUnusedValidity = 0;
+    private long mTotalDeadAir = 0;
+    private long mMaxBeaconDeadAir = 0;
+    private int mPeakRequests = 0;
+    private long mBucketSize = 1;
+
+    SimulationReport(int beaconCount, long duration) {
+        mBeaconCount = beaconCount;
+        mDuration = duration;
+    }
+
+    void onIssueRequested() {
+        mIssueRequests++;
+    }
+
+    void onIssueFailed() {
+        mFailedIssues++;
+    }
+
+    void onIssueCanceled() {
+        mCanceledIssues++;
+    }
+
+    void onWakeup() {
+        mWakeups++;
+    }
+
+    void addUnusedValidity(long millis) {
+        mUnusedValidity += millis;
+    }
+
+    void addBeaconDeadAir(long millis) {
+        mTotalDeadAir += millis;
+        mMaxBeaconDeadAir = Math.max(mMaxBeaconDeadAir, millis);
+    }
+
+    void setPeakRequests(int peakRequests, long bucketSize) {
+        mPeakRequests = peakRequests;
+        mBucketSize = bucketSize;
+    }
+
+    public long getIssueRequests() {
+        return mIssueRequests;
+    }
+
+    public long getFailedIssues() {
+        return mFailedIssues;
+    }
+
+    public long getCanceledIssues() {
+        return mCanceledIssues;
+    }
+
+    /**
+     * @return Issue requests that didn't result in an advertised URL: failed or cancelled.
+     */
+    public long getWastedIssues() {
+        return mFailedIssues + mCanceledIssues;
+    }
+
+    /**
+     * @return Number of distinct times the device had to wake up for a refresh.
+     */
+    public long getWakeups() {
+        return mWakeups;
+    }
+
+    /**
+     * @return Total validity left on short URLs that were replaced before they expired, in milliseconds.
+     */
+    public long getUnusedValidity() {
+        return mUnusedValidity;
+    }
+
+    /**
+     * @return Total time, over all beacons, spent off air or advertising an expired URL, in milliseconds.
+     */
+    public long getTotalDeadAir() {
+        return mTotalDeadAir;
+    }
+
+    public long getMaxBeaconDeadAir() {
+        return mMaxBeaconDeadAir;
+    }
+
+    /**
+     * @return Highest number of issue requests started within one time bucket.
+     */
+    public int getPeakRequests() {
+        return mPeakRequests;
+    }
+
+    /**
+     * @return Ratio of the peak to the average number of issue requests per time bucket; 1 means perfectly even.
+     */
+    public double getBurstiness() {
+        double buckets = Math.max(1, mDuration / mBucketSize);
+        return 0 == mIssueRequests ? 0 : mPeakRequests / (mIssueRequests / buckets);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "%d beacons over %.1f h: %d issues (%d failed, %d cancelled), %d wakeups, " +
+                        "dead air %.1f s total / %.1f s max per beacon, unused validity %.1f s, " +
+                        "peak %d requests per %d ms, burstiness %.2f",
+                mBeaconCount, mDuration / 3600000.0, mIssueRequests, mFailedIssues, mCanceledIssues,
+                mWakeups, mTotalDeadAir / 1000.0, mMaxBeaconDeadAir / 1000.0, mUnusedValidity / 1000.0,
+                mPeakRequests, mBucketSize, getBurstiness());
+    }
+}
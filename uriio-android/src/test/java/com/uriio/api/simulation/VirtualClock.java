@@ -0,0 +1,30 @@
+package com.uriio.api.simulation;
+
+import com.uriio.api.Clock;
+
+/**
+ * Manually advanced clock, for driving expiry decisions in tests and simulations.
+ */
+public class VirtualClock implements Clock {
+    private long mTime;
+
+    public VirtualClock(long startTime) {
+        mTime = startTime;
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return mTime;
+    }
+
+    public void setTime(long time) {
+        if (time < mTime) {
+            throw new IllegalArgumentException("Virtual time can't go back");
+        }
+        mTime = time;
+    }
+
+    public void advance(long millis) {
+        setTime(mTime + millis);
+    }
+}